@@ -0,0 +1,73 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// Each phase of the regex compilation, measured on the output of the previous phases
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompileBenchmark {
+
+    @Param({"literal", "alternation", "nestedStar", "dotHeavy"})
+    public String family;
+
+    private String regEx;
+    private Object tree;
+    private Object nfa;
+    private Object dfa;
+
+    @Setup
+    public void compile() throws Throwable {
+        regEx = Egrep.pattern(family);
+        tree = Egrep.BUILD_SYNTAX_TREE.invokeExact((Object) regEx);
+        nfa = Egrep.SYNTAX_TREE_TO_NFA.invokeExact(tree);
+        dfa = Egrep.NFA_TO_DFA.invokeExact(nfa);
+    }
+
+    @Benchmark
+    public Object buildSyntaxTree() throws Throwable {
+        return Egrep.BUILD_SYNTAX_TREE.invokeExact((Object) regEx);
+    }
+
+    @Benchmark
+    public Object syntaxTreeToNFA() throws Throwable {
+        return Egrep.SYNTAX_TREE_TO_NFA.invokeExact(tree);
+    }
+
+    @Benchmark
+    public Object nfaToDFA() throws Throwable {
+        return Egrep.NFA_TO_DFA.invokeExact(nfa);
+    }
+
+    // the DFA from the tree by Thompson's NFA, to compare with the position automaton
+    @Benchmark
+    public Object thompsonDFA() throws Throwable {
+        return Egrep.NFA_TO_DFA.invokeExact(Egrep.SYNTAX_TREE_TO_NFA.invokeExact(tree));
+    }
+
+    // the DFA from the followpos of the tree, without ε-closure
+    @Benchmark
+    public Object glushkovDFA() throws Throwable {
+        return Egrep.SYNTAX_TREE_TO_DFA.invokeExact(tree);
+    }
+
+    @Benchmark
+    public Object minimizeDFA() throws Throwable {
+        return Egrep.MINIMIZE_DFA.invokeExact(dfa);
+    }
+}
@@ -0,0 +1,89 @@
+package benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+// The egrep classes live in the default package, which JMH benchmarks can't import.
+// They are reached through method handles typed with Object, constant folded by the JIT.
+final class Egrep {
+    static final MethodHandle BUILD_SYNTAX_TREE = method("SyntaxTreeBuilder", "buildSyntaxTree", "SyntaxTreeNode", String.class);
+    static final MethodHandle SYNTAX_TREE_TO_NFA = method("NFABuilder", "syntaxTreeToNFA", "NFA", "SyntaxTreeNode");
+    static final MethodHandle NFA_TO_DFA = method("DFABuilder", "NFAToDFA", "DFA", "NFA");
+    static final MethodHandle SYNTAX_TREE_TO_DFA = method("DFABuilder", "syntaxTreeToDFA", "DFA", "SyntaxTreeNode");
+    static final MethodHandle MINIMIZE_DFA = method("DFABuilder", "minimizeDFA", "DFA", "DFA");
+    static final MethodHandle TO_DENSE_DFA = method("DFABuilder", "toDenseDFA", "DenseDFA", "DFA");
+    static final MethodHandle SEARCH = method("Main", "search", java.util.List.class, "DenseDFA", String.class);
+    static final MethodHandle NEW_KMP = constructor("KMP", String.class);
+    static final MethodHandle KMP_SEARCH = virtual("KMP", "search", java.util.List.class, String.class);
+
+    // the regex families the benchmarks are run with
+    static String pattern(String family) {
+        switch (family) {
+            case "literal":
+                return "Pechorin";
+            case "alternation":
+                return "Pechorin|Maxim|Bela|Kazbich|Grushnitsky|Vera";
+            case "nestedStar":
+                return "((a|e)*(n|r)*)*s";
+            case "dotHeavy":
+                return ".a.e..o.(e|ch|o)*rin";
+            default:
+                throw new IllegalArgumentException(family);
+        }
+    }
+
+    // 913.txt from the root of the repository, or the file given by -Degrep.corpus=
+    static Path corpus() {
+        String property = System.getProperty("egrep.corpus");
+        if (property != null) return Paths.get(property);
+        Path path = Paths.get("913.txt");
+        return Files.exists(path) ? path : Paths.get("..", "913.txt");
+    }
+
+    private static MethodHandle method(String owner, String name, Object returnType, Object... parameterTypes) {
+        try {
+            MethodType type = MethodType.methodType(type(returnType), types(parameterTypes));
+            MethodHandle handle = MethodHandles.publicLookup().findStatic(Class.forName(owner), name, type);
+            return handle.asType(handle.type().generic());
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static MethodHandle virtual(String owner, String name, Object returnType, Object... parameterTypes) {
+        try {
+            MethodType type = MethodType.methodType(type(returnType), types(parameterTypes));
+            MethodHandle handle = MethodHandles.publicLookup().findVirtual(Class.forName(owner), name, type);
+            return handle.asType(handle.type().generic());
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static MethodHandle constructor(String owner, Object... parameterTypes) {
+        try {
+            MethodType type = MethodType.methodType(void.class, types(parameterTypes));
+            MethodHandle handle = MethodHandles.publicLookup().findConstructor(Class.forName(owner), type);
+            return handle.asType(handle.type().generic());
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Class<?>[] types(Object[] names) throws ClassNotFoundException {
+        Class<?>[] types = new Class<?>[names.length];
+        for (int i = 0; i < names.length; i++) types[i] = type(names[i]);
+        return types;
+    }
+
+    private static Class<?> type(Object name) throws ClassNotFoundException {
+        return name instanceof Class ? (Class<?>) name : Class.forName((String) name);
+    }
+
+    private Egrep() {
+    }
+}
@@ -0,0 +1,65 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Search of the lines of the corpus, repeated copies times, once the regex is compiled
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SearchBenchmark {
+
+    @Param({"literal", "alternation", "nestedStar", "dotHeavy"})
+    public String family;
+
+    @Param({"1", "10"})
+    public int copies;
+
+    private List<String> lines;
+    private Object denseDfa;
+    private Object kmp;
+
+    @Setup
+    public void setup() throws Throwable {
+        List<String> corpus = Files.readAllLines(Egrep.corpus(), StandardCharsets.UTF_8);
+        lines = new ArrayList<>(corpus.size() * copies);
+        for (int i = 0; i < copies; i++) lines.addAll(corpus);
+
+        String regEx = Egrep.pattern(family);
+        Object tree = Egrep.BUILD_SYNTAX_TREE.invokeExact((Object) regEx);
+        Object nfa = Egrep.SYNTAX_TREE_TO_NFA.invokeExact(tree);
+        Object dfa = Egrep.MINIMIZE_DFA.invokeExact(Egrep.NFA_TO_DFA.invokeExact(nfa));
+        denseDfa = Egrep.TO_DENSE_DFA.invokeExact(dfa);
+        kmp = Egrep.NEW_KMP.invokeExact((Object) regEx);
+    }
+
+    @Benchmark
+    public void dfaSearch(Blackhole blackhole) throws Throwable {
+        for (String line : lines) blackhole.consume(Egrep.SEARCH.invokeExact(denseDfa, (Object) line));
+    }
+
+    // KMP only makes sense for the literal family, the other ones are searched as plain strings
+    @Benchmark
+    public void kmpSearch(Blackhole blackhole) throws Throwable {
+        for (String line : lines) blackhole.consume(Egrep.KMP_SEARCH.invokeExact(kmp, (Object) line));
+    }
+}
@@ -0,0 +1,163 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+// Aho-Corasick search of a set of ASCII literals in a single pass.
+// The trie and its failure links are flattened into a dense table next[state * alphabetSize + classId],
+// where only the chars used by the literals get a class of their own.
+// The matches are those of the other matchers: the leftmost start where a literal occurs, with its earliest end.
+public class AhoCorasick implements Matcher {
+    static final int ASCII_RANGE = 0x80;
+
+    private final int[] next;
+    private final int alphabetSize;
+    // ASCII char -> class id, every other char is in the last class
+    private final int[] classMap = new int[ASCII_RANGE];
+    // length of the longest literal ending in each state, 0 when none ends there
+    private final int[] matchLength;
+    // length of the prefix of a literal read to reach each state, the earliest attempt still alive
+    private final int[] depth;
+
+    public AhoCorasick(List<String> literals) {
+        boolean[] used = new boolean[ASCII_RANGE];
+        for (String literal : literals)
+            for (int i = 0; i < literal.length(); i++) used[literal.charAt(i)] = true;
+        int classCount = 0;
+        for (int c = 0; c < ASCII_RANGE; c++) if (used[c]) classMap[c] = classCount++;
+        for (int c = 0; c < ASCII_RANGE; c++) if (!used[c]) classMap[c] = classCount;
+        alphabetSize = classCount + 1;
+
+        // trie, with -1 for missing children
+        int[] trie = new int[16 * alphabetSize];
+        int[] depth = new int[16];
+        boolean[] terminal = new boolean[16];
+        Arrays.fill(trie, -1);
+        int stateCount = 1;
+        for (String literal : literals) {
+            int state = 0;
+            for (int i = 0; i < literal.length(); i++) {
+                int index = state * alphabetSize + classMap[literal.charAt(i)];
+                if (trie[index] < 0) {
+                    if (stateCount == depth.length) {
+                        int oldSize = trie.length;
+                        trie = Arrays.copyOf(trie, oldSize * 2);
+                        Arrays.fill(trie, oldSize, trie.length, -1);
+                        depth = Arrays.copyOf(depth, depth.length * 2);
+                        terminal = Arrays.copyOf(terminal, terminal.length * 2);
+                    }
+                    depth[stateCount] = depth[state] + 1;
+                    trie[index] = stateCount++;
+                }
+                state = trie[index];
+            }
+            terminal[state] = true;
+        }
+
+        // breadth first over the trie: the failure link of a state is known before its children are reached,
+        // a missing transition takes the one of the failure link
+        next = Arrays.copyOf(trie, stateCount * alphabetSize);
+        this.depth = Arrays.copyOf(depth, stateCount);
+        matchLength = new int[stateCount];
+        int[] fail = new int[stateCount];
+        int[] queue = new int[stateCount];
+        int head = 0, tail = 0;
+        for (int classId = 0; classId < alphabetSize; classId++) {
+            int child = next[classId];
+            if (child < 0) {
+                next[classId] = 0;
+            } else {
+                fail[child] = 0;
+                queue[tail++] = child;
+            }
+        }
+        while (head < tail) {
+            int state = queue[head++];
+            matchLength[state] = terminal[state] ? depth[state] : matchLength[fail[state]];
+            for (int classId = 0; classId < alphabetSize; classId++) {
+                int index = state * alphabetSize + classId;
+                int child = next[index];
+                if (child < 0) {
+                    next[index] = next[fail[state] * alphabetSize + classId];
+                } else {
+                    fail[child] = next[fail[state] * alphabetSize + classId];
+                    queue[tail++] = child;
+                }
+            }
+        }
+    }
+
+    public int getStateCount() {
+        return matchLength.length;
+    }
+
+    // the longest literal ending at a char gives the earliest start of a match ending there; the leftmost one
+    // is reported once the attempts still alive all started at or after it, then the search starts over after it
+    // and reads again the chars of those attempts, fewer than the longest literal
+    @Override
+    public void search(String line, MatchConsumer consumer) {
+
+        int otherClass = alphabetSize - 1;
+        int length = line.length();
+
+        // matchStart is -1 when no literal was found yet
+        int matchStart = -1;
+        int matchEnd = -1;
+        int state = 0;
+        int i = 0;
+        while (true) {
+            if (i == length) {
+                // no attempt outlives the line, the match found is the leftmost one
+                if (matchStart < 0) break;
+            } else {
+                int c = line.charAt(i);
+                state = next[state * alphabetSize + (c < ASCII_RANGE ? classMap[c] : otherClass)];
+                int start = i - matchLength[state] + 1;
+                if (matchLength[state] > 0 && (matchStart < 0 || start < matchStart)) {
+                    matchStart = start;
+                    matchEnd = i;
+                }
+                i++;
+                if (matchStart < 0 || i - depth[state] < matchStart) continue;
+            }
+            consumer.match(matchStart, matchEnd);
+
+            // matches don't overlap, start over after this one
+            i = matchEnd + 1;
+            state = 0;
+            matchStart = -1;
+        }
+    }
+
+    @Override
+    public boolean matches(String line) {
+        int otherClass = alphabetSize - 1;
+
+        int state = 0;
+        for (int i = 0; i < line.length(); i++) {
+            int c = line.charAt(i);
+            state = next[state * alphabetSize + (c < ASCII_RANGE ? classMap[c] : otherClass)];
+            if (matchLength[state] > 0) return true;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean searchesBytes() {
+        return true;
+    }
+
+    // the literals are ASCII and never contain a line end, a match can't span two lines
+    @Override
+    public int find(ByteBuffer text, int from, int to) {
+        int otherClass = alphabetSize - 1;
+
+        int state = 0;
+        for (int i = from; i < to; i++) {
+            int b = text.get(i);
+            state = next[state * alphabetSize + (b >= 0 ? classMap[b] : otherClass)];
+            if (matchLength[state] > 0) return i;
+        }
+
+        return -1;
+    }
+}
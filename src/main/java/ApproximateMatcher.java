@@ -0,0 +1,149 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+// Matches within k errors of the patterns, as agrep: a part of the line that a word of the patterns becomes
+// with at most k chars inserted, deleted or substituted. Wu and Manber's bit-parallel simulation over the
+// position automaton of the tree: sets[i] holds the states reached with i errors, and reading a char c gives
+//   follow(sets[i]) & mask(c)    c is read by the pattern
+//   | follow(sets[i - 1])        c replaces a char of the pattern
+//   | sets[i - 1]                c is inserted
+//   | follow(new sets[i - 1])    a char of the pattern is deleted
+// A match neither starts nor ends with an inserted char, the same match without it has one error less:
+// a char is only inserted after a char read by the match. As ShiftAnd does, the reversed automaton marks
+// where matches start and the automaton of the patterns goes from each start to its earliest end.
+// The sets and the starts are kept between searches, an ApproximateMatcher must not be shared between threads.
+public class ApproximateMatcher implements Matcher {
+    private final BitParallelNFA forward;
+    private final BitParallelNFA reverse;
+    private final int errors;
+    // the start state and what deleting the first chars of the pattern reaches from it, for each number of errors
+    private final long[] forwardStarts;
+    private final long[] reverseStarts;
+    private final long[] sets;
+    // where the matches of the line being searched start
+    private final MatchStarts starts = new MatchStarts();
+
+    public ApproximateMatcher(BitParallelNFA forward, BitParallelNFA reverse, int errors) {
+        this.forward = forward;
+        this.reverse = reverse;
+        this.errors = errors;
+        this.forwardStarts = startSets(forward, errors);
+        this.reverseStarts = startSets(reverse, errors);
+        this.sets = new long[errors + 1];
+    }
+
+    private static long[] startSets(BitParallelNFA automaton, int errors) {
+        long[] startSets = new long[errors + 1];
+        startSets[0] = 1;
+        for (int i = 1; i <= errors; i++) startSets[i] = startSets[i - 1] | automaton.follow(startSets[i - 1]);
+        return startSets;
+    }
+
+    // the automatons are shared, every thread gets its own sets and starts
+    @Override
+    public Matcher forThread() {
+        return new ApproximateMatcher(forward, reverse, errors);
+    }
+
+    @Override
+    public void search(String line, MatchConsumer consumer) {
+        int length = line.length();
+        if (!markStarts(line)) return;
+
+        int matchStartIndex = starts.next(0);
+        while (matchStartIndex >= 0) {
+            // a match starts here, it ends before the sets are empty
+            Arrays.fill(sets, 0);
+            int textIndex = matchStartIndex;
+            boolean accepted = step(forward, forwardStarts, forward.classOf(line.charAt(textIndex)), false);
+            while (!accepted && ++textIndex < length)
+                accepted = step(forward, null, forward.classOf(line.charAt(textIndex)), false);
+            if (!accepted) return;
+            consumer.match(matchStartIndex, textIndex);
+
+            // continue searching for the next match
+            matchStartIndex = starts.next(textIndex + 1);
+        }
+    }
+
+    // the reversed automaton from the end of the line to its start, a match may end at every char;
+    // false when no match starts anywhere
+    private boolean markStarts(String line) {
+        int length = line.length();
+        starts.clear(length);
+
+        Arrays.fill(sets, 0);
+        boolean found = false;
+        for (int textIndex = length - 1; textIndex >= 0; textIndex--) {
+            if (step(reverse, reverseStarts, reverse.classOf(line.charAt(textIndex)), true)) {
+                starts.set(textIndex);
+                found = true;
+            }
+        }
+        return found;
+    }
+
+
+    // reads a char of classId, a match may start at it when initial holds the start sets;
+    // true when an accepting state is reached, by a step that doesn't insert the char when strict
+    private boolean step(BitParallelNFA automaton, long[] initial, int classId, boolean strict) {
+        long mask = automaton.mask(classId);
+        long accept = automaton.getAccept();
+        boolean accepted = false;
+        // sets[i - 1] before the char without the starts, its follow with them, and sets[i - 1] after the char
+        long previousCarried = 0;
+        long previousFollow = 0;
+        long previousUpdated = 0;
+        // the part of sets[i - 1] after the char reached without inserting it
+        long previousStrict = 0;
+        for (int i = 0; i <= errors; i++) {
+            long carried = sets[i];
+            long follow = automaton.follow(initial == null ? carried : carried | initial[i]);
+            long read = (follow & mask) | previousFollow;
+            long updated = read | previousCarried | automaton.follow(previousUpdated);
+            if (strict) {
+                long strictSet = read | automaton.follow(previousStrict);
+                if ((strictSet & accept) != 0) accepted = true;
+                previousStrict = strictSet;
+            } else if ((updated & accept) != 0) {
+                accepted = true;
+            }
+            sets[i] = updated;
+            previousCarried = carried;
+            previousFollow = follow;
+            previousUpdated = updated;
+        }
+        return accepted;
+    }
+
+    // whether a match ends somewhere, a match may start at every char
+    @Override
+    public boolean matches(String line) {
+        Arrays.fill(sets, 0);
+        for (int textIndex = 0; textIndex < line.length(); textIndex++)
+            if (step(forward, forwardStarts, forward.classOf(line.charAt(textIndex)), false)) return true;
+        return false;
+    }
+
+    @Override
+    public boolean searchesBytes() {
+        return forward.getClasses().isAscii();
+    }
+
+    // the walk of matches over UTF-8 bytes; the end of the first match
+    @Override
+    public int find(ByteBuffer text, int from, int to) {
+        Arrays.fill(sets, 0);
+        for (int textIndex = from; textIndex < to; textIndex++) {
+            int classId = forward.byteClass(text, textIndex);
+            if (classId == BitParallelNFA.SKIP) continue;
+            if (classId == BitParallelNFA.LINE_END) {
+                // end of line, the next one starts from scratch
+                Arrays.fill(sets, 0);
+                continue;
+            }
+            if (step(forward, forwardStarts, classId, false)) return textIndex;
+        }
+        return -1;
+    }
+}
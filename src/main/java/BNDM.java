@@ -0,0 +1,130 @@
+import java.nio.ByteBuffer;
+
+// Backward search of a short pattern, BNDM over the bit-parallel position automatons of its tree:
+// a window as long as the shortest match is read backwards by the reversed automaton started from all of
+// its states, which stays alive while what was read is a factor of a match and tells when it is the start
+// of one. No match starts before the char where it dies, so the window moves to the leftmost start seen
+// in it, or past it when there is none, without reading the chars in between.
+// A window read back to its first char may start a match, the automaton of the pattern checks it forwards.
+public class BNDM implements Matcher {
+    private final BitParallelNFA forward;
+    private final BitParallelNFA reverse;
+    private final int minLength;
+
+    public BNDM(BitParallelNFA forward, BitParallelNFA reverse) {
+        this.forward = forward;
+        this.reverse = reverse;
+        this.minLength = forward.minLength();
+    }
+
+    public int getMinLength() {
+        return minLength;
+    }
+
+    @Override
+    public void search(String line, MatchConsumer consumer) {
+        int windowStart = 0;
+        while (windowStart <= line.length() - minLength) {
+            int matchEnd = -1;
+            // without any start in the window, the next one is past it
+            int shift = minLength;
+            long set = reverse.getPositions() | 1;
+            int textIndex = windowStart + minLength;
+            while (textIndex > windowStart) {
+                set = reverse.step(set, line.charAt(--textIndex));
+                if (set == 0) break;
+                // what was read starts a match
+                if ((set & reverse.getAccept()) != 0) {
+                    if (textIndex > windowStart) shift = textIndex - windowStart;
+                    else matchEnd = matchEnd(line, windowStart);
+                }
+            }
+
+            if (matchEnd >= 0) {
+                consumer.match(windowStart, matchEnd);
+                windowStart = matchEnd + 1;
+            } else {
+                windowStart += shift;
+            }
+        }
+    }
+
+    @Override
+    public boolean matches(String line) {
+        int windowStart = 0;
+        while (windowStart <= line.length() - minLength) {
+            int shift = minLength;
+            long set = reverse.getPositions() | 1;
+            int textIndex = windowStart + minLength;
+            while (textIndex > windowStart) {
+                set = reverse.step(set, line.charAt(--textIndex));
+                if (set == 0) break;
+                if ((set & reverse.getAccept()) != 0) {
+                    if (textIndex > windowStart) shift = textIndex - windowStart;
+                    else if (matchEnd(line, windowStart) >= 0) return true;
+                }
+            }
+            windowStart += shift;
+        }
+        return false;
+    }
+
+    // earliest end of a match starting at start, -1 when there is none
+    private int matchEnd(String line, int start) {
+        long accept = forward.getAccept();
+        long set = 1;
+        for (int textIndex = start; textIndex < line.length(); textIndex++) {
+            set = forward.step(set, line.charAt(textIndex));
+            if (set == 0) return -1;
+            if ((set & accept) != 0) return textIndex;
+        }
+        return -1;
+    }
+
+    @Override
+    public boolean searchesBytes() {
+        return forward.getClasses().isAscii();
+    }
+
+    // the same windows over UTF-8 bytes: a match has at least minLength chars, so at least minLength bytes.
+    // The bytes skipped by the walk of DenseDFA leave the set as it is, and a match never spans an end of line
+    @Override
+    public int find(ByteBuffer text, int from, int to) {
+        int windowStart = from;
+        while (windowStart <= to - minLength) {
+            int shift = minLength;
+            long set = reverse.getPositions() | 1;
+            int textIndex = windowStart + minLength;
+            while (textIndex > windowStart) {
+                int classId = reverse.byteClass(text, --textIndex);
+                if (classId == BitParallelNFA.SKIP) continue;
+                if (classId == BitParallelNFA.LINE_END) break;
+                set = reverse.follow(set) & reverse.mask(classId);
+                if (set == 0) break;
+                if ((set & reverse.getAccept()) != 0) {
+                    if (textIndex > windowStart) shift = textIndex - windowStart;
+                    else {
+                        int matchEnd = matchEnd(text, windowStart, to);
+                        if (matchEnd >= 0) return matchEnd;
+                    }
+                }
+            }
+            windowStart += shift;
+        }
+        return -1;
+    }
+
+    private int matchEnd(ByteBuffer text, int start, int to) {
+        long accept = forward.getAccept();
+        long set = 1;
+        for (int textIndex = start; textIndex < to; textIndex++) {
+            int classId = forward.byteClass(text, textIndex);
+            if (classId == BitParallelNFA.SKIP) continue;
+            if (classId == BitParallelNFA.LINE_END) return -1;
+            set = forward.follow(set) & forward.mask(classId);
+            if (set == 0) return -1;
+            if ((set & accept) != 0) return textIndex;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,143 @@
+import java.nio.ByteBuffer;
+
+// Search in linear time with three DFAs of the same patterns, each char of a line is read a constant number of times:
+// the unanchored DFA reads the line once and stops at the end of the first match, which is all find and matches need;
+// the reverse DFA, unanchored over the mirror patterns, reads the line backwards once and marks where matches start;
+// the DFA of the patterns goes from each start to the earliest end, the next start is looked for after that end.
+// The matches are those of DenseDFA, without going back to the char after the start of every failed attempt.
+// The starts of the line are kept between searches, a BidirectionalDFA must not be shared between threads.
+public class BidirectionalDFA implements Matcher {
+    private final DenseDFA forward;
+    private final DenseDFA unanchored;
+    private final DenseDFA reverse;
+    // where the matches of the line being searched start
+    private final MatchStarts starts = new MatchStarts();
+
+    public BidirectionalDFA(DenseDFA forward, DenseDFA unanchored, DenseDFA reverse) {
+        this.forward = forward;
+        this.unanchored = unanchored;
+        this.reverse = reverse;
+    }
+
+    // the DFAs are shared, every thread gets its own starts
+    @Override
+    public Matcher forThread() {
+        return new BidirectionalDFA(forward, unanchored, reverse);
+    }
+
+    public DenseDFA getForward() {
+        return forward;
+    }
+
+    public DenseDFA getUnanchored() {
+        return unanchored;
+    }
+
+    public DenseDFA getReverse() {
+        return reverse;
+    }
+
+    @Override
+    public void search(String line, MatchConsumer consumer) {
+        if (!markStarts(line)) return;
+
+        int[] next = forward.getTransitions();
+        long[] accept = forward.getAccept();
+        int[] classMap = forward.getClassMap();
+        int alphabetSize = forward.getAlphabetSize();
+
+        int matchStartIndex = starts.next(0);
+        while (matchStartIndex >= 0) {
+            // a match starts here, the DFA of the patterns can't die before its earliest end
+            int currentState = forward.getStartState();
+            int textIndex = matchStartIndex;
+            while (true) {
+                currentState = next[currentState * alphabetSize + classMap[line.charAt(textIndex)]];
+                if ((accept[currentState >>> 6] & (1L << currentState)) != 0) break;
+                textIndex++;
+            }
+            consumer.match(matchStartIndex, textIndex);
+
+            // continue searching for the next match
+            matchStartIndex = starts.next(textIndex + 1);
+        }
+    }
+
+    // the reverse DFA from the end of the line to its start; false when no match starts anywhere
+    private boolean markStarts(String line) {
+        int length = line.length();
+        starts.clear(length);
+
+        int[] next = reverse.getTransitions();
+        long[] accept = reverse.getAccept();
+        int[] classMap = reverse.getClassMap();
+        int alphabetSize = reverse.getAlphabetSize();
+
+        boolean found = false;
+        int currentState = reverse.getStartState();
+        for (int textIndex = length - 1; textIndex >= 0; textIndex--) {
+            currentState = next[currentState * alphabetSize + classMap[line.charAt(textIndex)]];
+            if ((accept[currentState >>> 6] & (1L << currentState)) != 0) {
+                starts.set(textIndex);
+                found = true;
+            }
+        }
+        return found;
+    }
+
+
+    // whether a match ends somewhere, the first end is enough
+    @Override
+    public boolean matches(String line) {
+        int[] next = unanchored.getTransitions();
+        long[] accept = unanchored.getAccept();
+        int[] classMap = unanchored.getClassMap();
+        int alphabetSize = unanchored.getAlphabetSize();
+
+        int currentState = unanchored.getStartState();
+        for (int textIndex = 0; textIndex < line.length(); textIndex++) {
+            currentState = next[currentState * alphabetSize + classMap[line.charAt(textIndex)]];
+            if ((accept[currentState >>> 6] & (1L << currentState)) != 0) return true;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean searchesBytes() {
+        return unanchored.searchesBytes();
+    }
+
+    // the unanchored DFA over UTF-8 bytes, walked as DenseDFA does; the end of the first match
+    @Override
+    public int find(ByteBuffer text, int from, int to) {
+        int[] next = unanchored.getTransitions();
+        long[] accept = unanchored.getAccept();
+        int[] classMap = unanchored.getClassMap();
+        int alphabetSize = unanchored.getAlphabetSize();
+        int startState = unanchored.getStartState();
+        int otherClass = unanchored.getClasses().getDotClass();
+
+        int currentState = startState;
+        for (int textIndex = from; textIndex < to; textIndex++) {
+            int b = text.get(textIndex) & 0xFF;
+            int classId;
+            if (b < 0x80) {
+                if (b == '\n' || b == '\r') {
+                    // end of line, the next one starts from scratch
+                    currentState = startState;
+                    continue;
+                }
+                classId = classMap[b];
+            } else if (b >= 0xC0 || (textIndex > 0 && (text.get(textIndex - 1) & 0xFF) >= 0xF0)) {
+                classId = otherClass;
+            } else {
+                continue;
+            }
+
+            currentState = next[currentState * alphabetSize + classId];
+            if ((accept[currentState >>> 6] & (1L << currentState)) != 0) return textIndex;
+        }
+
+        return -1;
+    }
+}
@@ -0,0 +1,123 @@
+import java.nio.ByteBuffer;
+
+// Glushkov's position automaton of a tree with fewer than 64 positions, simulated bit-parallel:
+// a set of states is a long, bit 0 for the start state and bit p for the position p.
+// Every edge into a position is labelled with the char of that position, so the step of a set d over a char c
+// is follow(d) & mask(c): the followpos of all the states of d at once, kept where c may be read.
+// follow(d) is the union of precomputed tables, one for each byte of d; there is no DFA to build.
+public class BitParallelNFA {
+    static final int MAX_STATES = Long.SIZE;
+    // byteClass of the bytes read with the first byte of their char, and of the ends of line
+    static final int SKIP = -1;
+    static final int LINE_END = -2;
+
+    private final CharClasses classes;
+    private final int[] classMap;
+    // class id -> positions where a char of the class may be read
+    private final long[] masks;
+    // follow[(chunk << 8) | byte]: the followpos of the states of the byte number chunk of a set
+    private final long[] follow;
+    private final int chunks;
+    private final long accept;
+    private final long positions;
+
+    private BitParallelNFA(CharClasses classes, long[] masks, long[] follow, int chunks, long accept, long positions) {
+        this.classes = classes;
+        this.classMap = classes.getClassMap();
+        this.masks = masks;
+        this.follow = follow;
+        this.chunks = chunks;
+        this.accept = accept;
+        this.positions = positions;
+    }
+
+    // null when the tree has too many positions for a long
+    public static BitParallelNFA of(SyntaxTreeNode syntaxTree) {
+        IndexedNFA automaton = NFABuilder.syntaxTreeToPositions(syntaxTree);
+        int stateCount = automaton.getStateCount();
+        if (stateCount > MAX_STATES) return null;
+
+        // the edges of each state, read back from the moves over each class
+        CharClasses classes = automaton.getClasses();
+        long[] masks = new long[classes.getClassCount()];
+        long[] followOf = new long[stateCount];
+        long accept = 0;
+        for (int state = 0; state < stateCount; state++) {
+            int[] set = {state};
+            if (automaton.isAccept(set)) accept |= 1L << state;
+            for (int classId = 0; classId < masks.length; classId++) {
+                for (int target : automaton.move(set, classId)) {
+                    followOf[state] |= 1L << target;
+                    masks[classId] |= 1L << target;
+                }
+            }
+        }
+
+        int chunks = (stateCount + 7) >>> 3;
+        long[] follow = new long[chunks << 8];
+        for (int chunk = 0; chunk < chunks; chunk++) {
+            for (int bits = 1; bits < 256; bits++) {
+                // the table of bits is the one of bits without its lowest state, plus that state
+                int lowest = Integer.numberOfTrailingZeros(bits);
+                int state = (chunk << 3) + lowest;
+                long lowestFollow = state < stateCount ? followOf[state] : 0;
+                follow[(chunk << 8) | bits] = follow[(chunk << 8) | (bits & (bits - 1))] | lowestFollow;
+            }
+        }
+
+        long positions = (stateCount == MAX_STATES ? -1L : (1L << stateCount) - 1) & ~1L;
+        return new BitParallelNFA(classes, masks, follow, chunks, accept, positions);
+    }
+
+    public CharClasses getClasses() {
+        return classes;
+    }
+
+    // states where a match of at least one char ends; bit 0 when the tree matches the empty word
+    public long getAccept() {
+        return accept;
+    }
+
+    // all the positions, without the start state
+    public long getPositions() {
+        return positions;
+    }
+
+    public long mask(int classId) {
+        return masks[classId];
+    }
+
+    public int classOf(char c) {
+        return classMap[c];
+    }
+
+    public long follow(long set) {
+        long result = 0;
+        for (int chunk = 0; chunk < chunks; chunk++)
+            result |= follow[(chunk << 8) | (int) ((set >>> (chunk << 3)) & 0xFF)];
+        return result;
+    }
+
+    public long step(long set, char c) {
+        return follow(set) & masks[classMap[c]];
+    }
+
+    // class of the UTF-8 byte at index, walked as DenseDFA does: a lead byte is one char, continuation bytes
+    // are skipped, except the first one of a 4 bytes sequence which stands for the low surrogate of the pair
+    public int byteClass(ByteBuffer text, int index) {
+        int b = text.get(index) & 0xFF;
+        if (b < 0x80) return b == '\n' || b == '\r' ? LINE_END : classMap[b];
+        if (b >= 0xC0 || (index > 0 && (text.get(index - 1) & 0xFF) >= 0xF0)) return classes.getDotClass();
+        return SKIP;
+    }
+
+    // length of the shortest match of at least one char: every position leads to an accepting one
+    public int minLength() {
+        long set = 1;
+        for (int length = 1; length < MAX_STATES; length++) {
+            set = follow(set);
+            if ((set & accept) != 0) return length;
+        }
+        return MAX_STATES;
+    }
+}
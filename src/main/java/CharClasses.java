@@ -0,0 +1,71 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+// Partition of the input alphabet into equivalence classes.
+// Every char named in the regex gets its own class, every other char falls into the DOT class,
+// so the automatons only have to deal with classCount symbols instead of the whole alphabet.
+public class CharClasses {
+    static final int CHAR_RANGE = 0x10000;
+
+    // char -> class id
+    private final int[] classMap;
+    // class id -> char of the class, DOT for the class of unnamed chars
+    private final int[] representatives;
+    private final int dotClass;
+
+    public CharClasses(Set<Integer> alphabet) {
+        List<Integer> symbols = new ArrayList<>();
+        for (int symbol : alphabet)
+            if (symbol != SyntaxTreeBuilder.DOT && symbol != NFA.EPSILON && symbol < CHAR_RANGE) symbols.add(symbol);
+        Collections.sort(symbols);
+
+        this.dotClass = symbols.size();
+        this.representatives = new int[symbols.size() + 1];
+        this.classMap = new int[CHAR_RANGE];
+        Arrays.fill(classMap, dotClass);
+        for (int classId = 0; classId < symbols.size(); classId++) {
+            representatives[classId] = symbols.get(classId);
+            classMap[symbols.get(classId)] = classId;
+        }
+        representatives[dotClass] = SyntaxTreeBuilder.DOT;
+    }
+
+    public CharClasses(int[] classMap, int[] representatives, int dotClass) {
+        this.classMap = classMap;
+        this.representatives = representatives;
+        this.dotClass = dotClass;
+    }
+
+    public int classOf(int c) {
+        return classMap[c];
+    }
+
+    // true when every char outside of ASCII falls in the DOT class, UTF-8 bytes can then be classified one by one
+    public boolean isAscii() {
+        for (int c = 0x80; c < CHAR_RANGE; c++) if (classMap[c] != dotClass) return false;
+        return true;
+    }
+
+    public int getClassCount() {
+        return representatives.length;
+    }
+
+    public int getDotClass() {
+        return dotClass;
+    }
+
+    public int getRepresentative(int classId) {
+        return representatives[classId];
+    }
+
+    public int[] getClassMap() {
+        return classMap;
+    }
+
+    public int[] getRepresentatives() {
+        return representatives;
+    }
+}
@@ -0,0 +1,143 @@
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+// Compressed input, recognized by its first bytes, is inflated by a thread of its own: the inflated bytes go
+// to the search in buffers of fixed size through a bounded queue, so that inflating and searching overlap.
+// The buffers are allocated once and go back to the inflater when the search is done with them.
+public class CompressedInput implements ReadableByteChannel {
+    static final int CHUNK_SIZE = 64 << 10;
+    // buffers inflated ahead of the search
+    static final int QUEUE_CAPACITY = 4;
+    // the queue, the buffer being filled and the one being read
+    private static final int CHUNK_COUNT = QUEUE_CAPACITY + 2;
+    // marks the end of the input in the queue
+    private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+    private static final int NONE = 0;
+    private static final int GZIP = 1;
+    private static final int ZLIB = 2;
+
+    private final InputStream in;
+    private final BlockingQueue<ByteBuffer> full = new ArrayBlockingQueue<>(QUEUE_CAPACITY + 1);
+    private final BlockingQueue<ByteBuffer> free = new ArrayBlockingQueue<>(CHUNK_COUNT);
+    private final Thread inflater;
+    // failure of the inflater, thrown to the reader at the end of the input
+    private volatile IOException error;
+    private ByteBuffer current;
+    private boolean open = true;
+
+    private CompressedInput(InputStream in) {
+        this.in = in;
+        for (int i = 0; i < CHUNK_COUNT; i++) free.add(ByteBuffer.allocate(CHUNK_SIZE));
+        this.inflater = new Thread(this::inflate, "egrep-inflater");
+        inflater.setDaemon(true);
+        inflater.start();
+    }
+
+    public static boolean isCompressed(File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] header = new byte[2];
+            return in.readNBytes(header, 0, 2) == 2 && format(header) != NONE;
+        }
+    }
+
+    // the bytes of file, inflated when it is compressed
+    public static ReadableByteChannel open(File file) throws IOException {
+        return open(new FileInputStream(file));
+    }
+
+    // the bytes of in, inflated when they are compressed
+    public static ReadableByteChannel open(InputStream in) throws IOException {
+        BufferedInputStream buffered = new BufferedInputStream(in, CHUNK_SIZE);
+        buffered.mark(2);
+        byte[] header = new byte[2];
+        int read = buffered.readNBytes(header, 0, 2);
+        buffered.reset();
+
+        int format = read == 2 ? format(header) : NONE;
+        if (format == GZIP) return new CompressedInput(new GZIPInputStream(buffered, CHUNK_SIZE));
+        if (format == ZLIB) return new CompressedInput(new InflaterInputStream(buffered, new Inflater(), CHUNK_SIZE));
+        return Channels.newChannel(buffered);
+    }
+
+    private static int format(byte[] header) {
+        int b0 = header[0] & 0xFF;
+        int b1 = header[1] & 0xFF;
+        if (b0 == 0x1F && b1 == 0x8B) return GZIP;
+        // zlib headers of the usual compression levels, the other valid ones may well start a text
+        if (b0 == 0x78 && (b1 == 0x01 || b1 == 0x9C || b1 == 0xDA)) return ZLIB;
+        return NONE;
+    }
+
+    private void inflate() {
+        try {
+            while (true) {
+                ByteBuffer chunk = free.take();
+                chunk.clear();
+                // what is inflated goes right away, a slow stream isn't held back until the chunk is full
+                int read = in.read(chunk.array(), 0, chunk.capacity());
+                if (read < 0) break;
+                chunk.limit(read);
+                full.put(chunk);
+            }
+        } catch (IOException e) {
+            error = e;
+        } catch (InterruptedException e) {
+            // closed by the reader
+            return;
+        }
+        try {
+            full.put(END);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        if (!dst.hasRemaining()) return 0;
+        if (current == null || !current.hasRemaining()) {
+            if (current == END) return -1;
+            if (current != null) free.add(current);
+            try {
+                current = full.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            }
+            if (current == END) {
+                if (error != null) throw error;
+                return -1;
+            }
+        }
+
+        int length = Math.min(dst.remaining(), current.remaining());
+        dst.put(dst.position(), current, current.position(), length);
+        dst.position(dst.position() + length);
+        current.position(current.position() + length);
+        return length;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public void close() throws IOException {
+        open = false;
+        inflater.interrupt();
+        in.close();
+    }
+}
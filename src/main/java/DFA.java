@@ -7,10 +7,12 @@ public class DFA {
     private final Map<Integer, DFAState> states;
     private final Set<DFAState> acceptStates;
     private final Set<Integer> alphabet;
+    private final CharClasses classes;
     private DFAState startState;
 
-    public DFA(Set<Integer> alphabet) {
+    public DFA(Set<Integer> alphabet, CharClasses classes) {
         this.alphabet = alphabet;
+        this.classes = classes;
         this.states = new HashMap<>();
         this.acceptStates = new HashSet<>();
     }
@@ -44,4 +46,8 @@ public class DFA {
     public Set<Integer> getAlphabet() {
         return alphabet;
     }
+
+    public CharClasses getClasses() {
+        return classes;
+    }
 }
@@ -3,236 +3,293 @@ import java.util.*;
 public class DFABuilder {
 
     public static DFA NFAToDFA(NFA nfa) {
+        return NFAToDFA(nfa, Integer.MAX_VALUE);
+    }
 
-        // subsets method to regroup NFA states into DFA state
-        Set<Set<NFAState>> statesDFA = new HashSet<>();
-        // correspondence of NFA states groups to DFA state
-        Map<Set<NFAState>, DFAState> mapping = new HashMap<>();
+    // null when the DFA would have more than maxStates states
+    public static DFA NFAToDFA(NFA nfa, int maxStates) {
+        return subsets(new IndexedNFA(nfa), maxStates, false);
+    }
 
-        Set<NFAState> visited = new HashSet<>();
-        Set<Integer> fullAlphabet = getAlphabetFromNFA(new HashSet<>(), nfa.getStartState(), visited);
+    // DFA of the matches starting anywhere: each step moves the group and the start set together, so that
+    // a state is accepting where a match of at least one char ends. The DFA never dies and reads the text once.
+    // null when the DFA would have more than maxStates states
+    public static DFA NFAToUnanchoredDFA(NFA nfa, int maxStates) {
+        return subsets(new IndexedNFA(nfa), maxStates, true);
+    }
 
-        Queue<Set<NFAState>> queue = new LinkedList<>();
-        Set<NFAState> initialStates = new HashSet<>();
+    // the same DFAs from the position automaton of the tree instead of its Thompson NFA: the groups are sets
+    // of positions, a move follows the edges without any ε-closure to take
+    public static DFA syntaxTreeToDFA(SyntaxTreeNode syntaxTree) {
+        return syntaxTreeToDFA(syntaxTree, Integer.MAX_VALUE);
+    }
 
-        // add start state and all states connected to it with ε-transitions in the queue
-        initialStates.add(nfa.getStartState());
-        initialStates.addAll(epsilonClosure(initialStates));
-        statesDFA.add(initialStates);
-        queue.add(initialStates);
+    public static DFA syntaxTreeToDFA(SyntaxTreeNode syntaxTree, int maxStates) {
+        return subsets(NFABuilder.syntaxTreeToPositions(syntaxTree), maxStates, false);
+    }
 
-        while (!queue.isEmpty()) {
-            // add current state from queue and all states connected to it with ε-transitions
-            Set<NFAState> currStates = queue.poll();
-            currStates.addAll(epsilonClosure(currStates));
-
-            //for each possible symbol check if there is transition
-            //and look for all states connected to it with ε-transitions
-            for (int symbol : fullAlphabet) {
-                Set<NFAState> newStates = move(currStates, symbol);
-                newStates.addAll(epsilonClosure(newStates));
-
-                if (newStates.isEmpty()) continue;
-
-                //add new group to the queue
-                if (!statesDFA.contains(newStates)) {
-                    statesDFA.add(newStates);
-                    queue.add(newStates);
-                }
+    public static DFA syntaxTreeToUnanchoredDFA(SyntaxTreeNode syntaxTree, int maxStates) {
+        return subsets(NFABuilder.syntaxTreeToPositions(syntaxTree), maxStates, true);
+    }
 
-                //create new DFA state corresponding to current group of NFA states
-                if (!mapping.containsKey(currStates)) {
-                    mapping.put(currStates, new DFAState(mapping.size(), isStartState(currStates, nfa), isAcceptState(currStates, nfa)));
-                }
-                //create new DFA state corresponding to next group of NFA states
-                if (!mapping.containsKey(newStates)) {
-                    mapping.put(newStates, new DFAState(mapping.size(), isStartState(newStates, nfa), isAcceptState(newStates, nfa)));
+    private static DFA subsets(IndexedNFA indexed, int maxStates, boolean unanchored) {
+
+        // chars that no transition distinguishes share a class
+        CharClasses classes = indexed.getClasses();
+        Set<Integer> classIds = new LinkedHashSet<>();
+        for (int classId = 0; classId < classes.getClassCount(); classId++) classIds.add(classId);
+
+        // subsets method: each group of NFA states interned in the table is the DFA state of the same id
+        StateSetTable groups = new StateSetTable();
+        List<DFAState> states = new ArrayList<>();
+        // unanchored, a group is what the previous chars reached and the start set is added to it at each step
+        int[] initialStates = unanchored ? new int[0] : indexed.startSet();
+        groups.intern(initialStates);
+        states.add(new DFAState(0, true, indexed.isAccept(initialStates)));
+
+        // ids are given in order, so walking them in order is a breadth first walk
+        for (int id = 0; id < groups.size(); id++) {
+            int[] currStates = groups.get(id);
+
+            //for each class of symbols look for the states reached, ε-transitions included
+            for (int classId = 0; classId < classes.getClassCount(); classId++) {
+                int[] newStates = unanchored ? indexed.moveUnanchored(currStates, classId) : indexed.move(currStates, classId);
+                // unanchored, reaching nothing is going back to the initial group
+                if (newStates.length == 0 && !unanchored) continue;
+
+                int newId = groups.intern(newStates);
+                if (newId == states.size()) {
+                    if (newId == maxStates) return null;
+                    states.add(new DFAState(newId, false, indexed.isAccept(newStates)));
                 }
-                //add transition between created DFA states
-                mapping.get(currStates).addTransition(symbol, mapping.get(newStates));
+                states.get(id).addTransition(classId, states.get(newId));
             }
         }
 
-        //build DFA from correspondence of NFA states groups to DFA state
-        return buildDFAFromMapping(mapping, fullAlphabet);
+        DFA dfa = new DFA(classIds, classes);
+        for (DFAState state : states) dfa.addState(state);
+        return dfa;
     }
 
+    // Hopcroft partition refinement, O(n.k.log n) over integer indexed states
     public static DFA minimizeDFA(DFA dfa) {
 
-        // partition states into accepting and non-accepting groups
-        Set<DFAState> acceptingStates = new HashSet<>();
-        Set<DFAState> nonAcceptingStates = new HashSet<>();
-        for (DFAState state : dfa.getStates().values()) {
-            if (state.isAccept()) {
-                acceptingStates.add(state);
-            } else {
-                nonAcceptingStates.add(state);
-            }
+        List<DFAState> order = indexStates(dfa);
+        Map<DFAState, Integer> index = new HashMap<>();
+        for (int id = 0; id < order.size(); id++) index.put(order.get(id), id);
+
+        // complete transition table, a missing transition goes to the extra sink state n
+        int n = order.size();
+        int k = dfa.getClasses().getClassCount();
+        int sink = n;
+        int[] delta = new int[(n + 1) * k];
+        Arrays.fill(delta, sink);
+        for (int id = 0; id < n; id++) {
+            for (Map.Entry<Integer, DFAState> transition : order.get(id).getTransitions().entrySet())
+                delta[id * k + transition.getKey()] = index.get(transition.getValue());
         }
 
-        List<Set<DFAState>> partitions = new ArrayList<>();
-        partitions.add(acceptingStates);
-        partitions.add(nonAcceptingStates);
-
-        // refinement process
-        // look for states that have the same set of transitions and regroup them
-        boolean changed;
-        do {
-            changed = false;
-            List<Set<DFAState>> newPartitions = new ArrayList<>();
-
-            for (Set<DFAState> partition : partitions) {
-                List<Set<DFAState>> split = splitPartition(partition);
-                newPartitions.addAll(split);
-                if (split.size() > 1) {
-                    changed = true;
+        // predecessors of each (state, class), as offsets in a single array
+        int[] predecessorStart = new int[(n + 1) * k + 1];
+        for (int from = 0; from <= n; from++)
+            for (int classId = 0; classId < k; classId++) predecessorStart[delta[from * k + classId] * k + classId + 1]++;
+        for (int i = 1; i < predecessorStart.length; i++) predecessorStart[i] += predecessorStart[i - 1];
+        int[] predecessors = new int[(n + 1) * k];
+        int[] fill = Arrays.copyOf(predecessorStart, predecessorStart.length - 1);
+        for (int from = 0; from <= n; from++)
+            for (int classId = 0; classId < k; classId++) predecessors[fill[delta[from * k + classId] * k + classId]++] = from;
+
+        // blocks are ranges [first, end) of the elements array, the marked states of a block come first
+        int[] elements = new int[n + 1];
+        int[] location = new int[n + 1];
+        int[] blockOf = new int[n + 1];
+        int[] first = new int[n + 1];
+        int[] end = new int[n + 1];
+        int[] marked = new int[n + 1];
+        int blockCount = 0;
+
+        // accepting states first, then the others and the sink
+        int position = 0;
+        for (int pass = 0; pass < 2; pass++) {
+            int blockStart = position;
+            for (int state = 0; state <= n; state++) {
+                boolean accepting = state < n && order.get(state).isAccept();
+                if (accepting == (pass == 0)) {
+                    elements[position] = state;
+                    location[state] = position++;
+                    blockOf[state] = blockCount;
                 }
             }
-
-            partitions = newPartitions;
-        } while (changed);
-
-        // build the minimized DFA using groups of states
-        // if there are many states in the same group we can consider them equal
-        Map<Set<DFAState>, DFAState> minimizedStates = new HashMap<>();
-        //helper to save group where the start state is in
-        Set<DFAState> startStatePartition = new HashSet<>();
-        //helper to save groups where the accepting states are in
-        Set<Set<DFAState>> acceptStatePartitions = new HashSet<>();
-
-        for (Set<DFAState> partition : partitions) {
-            if (!partition.isEmpty()) {
-                //choose randomly one of the state from the group as representativeState
-                DFAState representativeState = partition.iterator().next();
-                minimizedStates.put(partition, representativeState);
+            if (position > blockStart) {
+                first[blockCount] = blockStart;
+                end[blockCount] = position;
+                blockCount++;
             }
-            //save group where the start state is in
-            // (if the start state was regrouped with other states, we could not choose it previously)
-            if (!partition.isEmpty() && partition.contains(dfa.getStartState())) startStatePartition = partition;
-            //same for accepting state
-            if (!partition.isEmpty() && partition.stream().anyMatch(dfa.getAcceptStates()::contains))
-                acceptStatePartitions.add(partition);
         }
 
-        Map<Integer, DFAState> newStates = new HashMap<>();
-
-        for (Set<DFAState> currentPartition : minimizedStates.keySet()) {
-            //if current partition is the one where start state is, and we didn't choose initial start state, them make it start state
-            if (currentPartition.equals(startStatePartition) && !minimizedStates.get(currentPartition).isStart())
-                minimizedStates.get(currentPartition).setStart();
-            //same for accept state
-            if (acceptStatePartitions.contains(currentPartition) && !minimizedStates.get(currentPartition).isAccept())
-                minimizedStates.get(currentPartition).setAccept();
-
-            Map<Integer, DFAState> newTransitions = new HashMap<>();
-            //save new transitions for each minimized state
-            for (int symbol : minimizedStates.get(currentPartition).getTransitions().keySet()) {
-                for (Set<DFAState> partition : partitions) {
-                    if (partition.contains(minimizedStates.get(currentPartition).getTransitions(symbol))) {
-                        newTransitions.put(symbol, minimizedStates.get(partition));
-                    }
+        // splitters (block, class) still to process
+        boolean[] waiting = new boolean[(n + 1) * k];
+        Deque<Integer> worklist = new ArrayDeque<>();
+        int smallest = blockCount == 2 && end[1] - first[1] < end[0] - first[0] ? 1 : 0;
+        for (int classId = 0; classId < k; classId++) {
+            waiting[smallest * k + classId] = true;
+            worklist.add(smallest * k + classId);
+        }
+
+        int[] splitter = new int[n + 1];
+        int[] touched = new int[n + 1];
+        while (!worklist.isEmpty()) {
+            int pair = worklist.poll();
+            waiting[pair] = false;
+            int block = pair / k;
+            int classId = pair % k;
+
+            // states of the splitter, copied since the block may be split below
+            int size = 0;
+            for (int i = first[block]; i < end[block]; i++) splitter[size++] = elements[i];
+
+            // mark the states going into the splitter with classId
+            int touchedCount = 0;
+            for (int i = 0; i < size; i++) {
+                int target = splitter[i];
+                for (int p = predecessorStart[target * k + classId]; p < predecessorStart[target * k + classId + 1]; p++) {
+                    int state = predecessors[p];
+                    int stateBlock = blockOf[state];
+                    int markedEnd = first[stateBlock] + marked[stateBlock];
+                    if (location[state] < markedEnd) continue;
+                    if (marked[stateBlock] == 0) touched[touchedCount++] = stateBlock;
+                    // swap the state with the first unmarked one of its block
+                    int other = elements[markedEnd];
+                    elements[markedEnd] = state;
+                    elements[location[state]] = other;
+                    location[other] = location[state];
+                    location[state] = markedEnd;
+                    marked[stateBlock]++;
                 }
             }
-            minimizedStates.get(currentPartition).removeAllTransition();
-            //update transitions for each minimized state
-            for (int symbol : newTransitions.keySet()) {
-                minimizedStates.get(currentPartition).addTransition(symbol, newTransitions.get(symbol));
+
+            // split the blocks partly marked: the marked states make a new block
+            for (int t = 0; t < touchedCount; t++) {
+                int splitBlock = touched[t];
+                int markedCount = marked[splitBlock];
+                marked[splitBlock] = 0;
+                if (markedCount == end[splitBlock] - first[splitBlock]) continue;
+
+                int newBlock = blockCount++;
+                first[newBlock] = first[splitBlock];
+                end[newBlock] = first[splitBlock] + markedCount;
+                first[splitBlock] = end[newBlock];
+                for (int i = first[newBlock]; i < end[newBlock]; i++) blockOf[elements[i]] = newBlock;
+
+                // a waiting block must have both halves processed, otherwise the smallest half is enough
+                int smaller = markedCount <= end[splitBlock] - first[splitBlock] ? newBlock : splitBlock;
+                for (int c = 0; c < k; c++) {
+                    int added = waiting[splitBlock * k + c] ? newBlock : smaller;
+                    if (!waiting[added * k + c]) {
+                        waiting[added * k + c] = true;
+                        worklist.add(added * k + c);
+                    }
+                }
             }
-            newStates.put(minimizedStates.get(currentPartition).getId(), minimizedStates.get(currentPartition));
         }
 
-        //create minimized DFA
-        DFA minimizedDFA = new DFA(dfa.getAlphabet());
-        for (Map.Entry<Integer, DFAState> entry : newStates.entrySet()) {
-            DFAState representativeState = entry.getValue();
-            minimizedDFA.addState(representativeState);
+        // one state per block, the block of the sink is left out: going there means no transition
+        DFAState[] newStates = new DFAState[blockCount];
+        int startBlock = blockOf[0];
+        int sinkBlock = blockOf[sink];
+        int newId = 0;
+        for (int state = 0; state < n; state++) {
+            int block = blockOf[state];
+            if (block != sinkBlock && newStates[block] == null)
+                newStates[block] = new DFAState(newId++, block == startBlock, order.get(state).isAccept());
         }
 
-        return minimizedDFA;
-    }
-
-    // helper method to split a partition based on transitions
-    private static List<Set<DFAState>> splitPartition(Set<DFAState> partition) {
-        Map<Integer, Set<DFAState>> transitions = new HashMap<>();
-
-        // group states in the partition by their transitions
-        for (DFAState state : partition) {
-            int transitionHashCode = state.getTransitionsHashCode();
-            transitions.computeIfAbsent(transitionHashCode, k -> new HashSet<>()).add(state);
-        }
-
-        return new ArrayList<>(transitions.values());
-    }
-
-    //get all acceptable symbols
-    private static Set<Integer> getAlphabetFromNFA(Set<Integer> alphabet, NFAState state, Set<NFAState> visited) {
-
-        visited.add(state);
-
-        for (int symbol : state.getTransitions().keySet()) {
-            for (NFAState toState : state.getTransitions().get(symbol)) {
-                if (symbol != NFA.EPSILON) alphabet.add(symbol);
-                if (!visited.contains(toState)) {
-                    getAlphabetFromNFA(alphabet, toState, visited);
-                }
+        DFA minimizedDFA = new DFA(dfa.getAlphabet(), dfa.getClasses());
+        boolean[] done = new boolean[blockCount];
+        for (int state = 0; state < n; state++) {
+            int block = blockOf[state];
+            if (block == sinkBlock || done[block]) continue;
+            done[block] = true;
+            for (int classId = 0; classId < k; classId++) {
+                int targetBlock = blockOf[delta[state * k + classId]];
+                if (targetBlock != sinkBlock) newStates[block].addTransition(classId, newStates[targetBlock]);
             }
+            minimizedDFA.addState(newStates[block]);
         }
 
-        return alphabet;
+        return minimizedDFA;
     }
 
-    //get all states reachable through ε-transitions
-    private static Set<NFAState> epsilonClosure(Set<NFAState> states) {
-        Set<NFAState> closure = new HashSet<>(states);
-        Queue<NFAState> queue = new LinkedList<>(states);
-
+    // the states of the DFA in breadth first order from the start state
+    private static List<DFAState> indexStates(DFA dfa) {
+        List<DFAState> order = new ArrayList<>();
+        Set<DFAState> seen = new HashSet<>();
+        Queue<DFAState> queue = new LinkedList<>();
+        seen.add(dfa.getStartState());
+        order.add(dfa.getStartState());
+        queue.add(dfa.getStartState());
         while (!queue.isEmpty()) {
-            NFAState state = queue.poll();
-            Set<NFAState> epsilonTransitions = state.getTransitions(NFA.EPSILON);
-            for (NFAState nextState : epsilonTransitions) {
-                if (!closure.contains(nextState)) {
-                    closure.add(nextState);
-                    queue.add(nextState);
+            DFAState state = queue.poll();
+            for (DFAState toState : state.getTransitions().values()) {
+                if (seen.add(toState)) {
+                    order.add(toState);
+                    queue.add(toState);
                 }
             }
         }
-
-        return closure;
-    }
-
-    //get all next states reachable through symbol-transitions
-    private static Set<NFAState> move(Set<NFAState> states, int symbol) {
-        Set<NFAState> moveStates = new HashSet<>();
-        for (NFAState state : states) {
-            moveStates.addAll(state.getTransitions(symbol));
-        }
-        return moveStates;
+        return order;
     }
 
-    private static boolean isAcceptState(Set<NFAState> states, NFA nfa) {
-        for (NFAState state : states) {
-            if (state.isAccept() && state.equals(nfa.getAcceptState())) {
-                return true;
+    // flatten a DFA into a dense transition table indexed by [state * alphabetSize + classId]
+    public static DenseDFA toDenseDFA(DFA dfa) {
+
+        // give the states dense ids, the start state being 0
+        List<DFAState> order = indexStates(dfa);
+        Map<DFAState, Integer> index = new HashMap<>();
+        for (int id = 0; id < order.size(); id++) index.put(order.get(id), id);
+
+        CharClasses classes = dfa.getClasses();
+        int classCount = classes.getClassCount();
+        int[] table = new int[order.size() * classCount];
+        long[] accept = new long[(order.size() + 63) >>> 6];
+        for (int id = 0; id < order.size(); id++) {
+            DFAState state = order.get(id);
+            if (state.isAccept()) accept[id >>> 6] |= 1L << id;
+            for (int classId = 0; classId < classCount; classId++) {
+                DFAState toState = state.getTransitions(classId);
+                table[id * classCount + classId] = toState == null ? DenseDFA.DEAD : index.get(toState);
             }
         }
-        return false;
-    }
 
-    private static boolean isStartState(Set<NFAState> states, NFA nfa) {
-        for (NFAState state : states) {
-            if (state.isStart() && state.equals(nfa.getStartState())) {
-                return true;
+        // classes with the same column in every state can't be told apart by the minimized DFA, merge them
+        Map<List<Integer>, Integer> columns = new HashMap<>();
+        int[] merged = new int[classCount];
+        for (int classId = 0; classId < classCount; classId++) {
+            List<Integer> column = new ArrayList<>(order.size());
+            for (int id = 0; id < order.size(); id++) column.add(table[id * classCount + classId]);
+            Integer mergedId = columns.get(column);
+            if (mergedId == null) {
+                mergedId = columns.size();
+                columns.put(column, mergedId);
             }
+            merged[classId] = mergedId;
         }
-        return false;
-    }
 
-    private static DFA buildDFAFromMapping(Map<Set<NFAState>, DFAState> mapping, Set<Integer> alphabet) {
-        DFA dfa = new DFA(alphabet);
-        for (Map.Entry<Set<NFAState>, DFAState> entry : mapping.entrySet()) {
-            dfa.addState(entry.getValue());
+        int alphabetSize = columns.size();
+        int[] next = new int[order.size() * alphabetSize];
+        int[] representatives = new int[alphabetSize];
+        for (int classId = classCount - 1; classId >= 0; classId--) {
+            representatives[merged[classId]] = classes.getRepresentative(classId);
+            for (int id = 0; id < order.size(); id++)
+                next[id * alphabetSize + merged[classId]] = table[id * classCount + classId];
         }
-        return dfa;
+
+        int[] classMap = new int[CharClasses.CHAR_RANGE];
+        int[] oldClassMap = classes.getClassMap();
+        for (int c = 0; c < classMap.length; c++) classMap[c] = merged[oldClassMap[c]];
+
+        CharClasses denseClasses = new CharClasses(classMap, representatives, merged[classes.getDotClass()]);
+        return new DenseDFA(next, alphabetSize, accept, 0, denseClasses);
     }
 
     //Method to visualize NFA in language DOT https://graphs.grevian.org/graph
@@ -253,7 +310,7 @@ public class DFABuilder {
 
         // Define transitions
         Set<DFAState> visited = new HashSet<>();
-        generateDOTRecursive(dot, dfa.getStartState(), visited);
+        generateDOTRecursive(dot, dfa.getStartState(), visited, dfa.getClasses());
 
         // DOT footer
         dot.append("}\n");
@@ -261,13 +318,14 @@ public class DFABuilder {
         return dot.toString();
     }
 
-    private static void generateDOTRecursive(StringBuilder dot, DFAState state, Set<DFAState> visited) {
+    private static void generateDOTRecursive(StringBuilder dot, DFAState state, Set<DFAState> visited, CharClasses classes) {
         visited.add(state);
         int fromStateId = state.getId();
 
-        for (int symbol : state.getTransitions().keySet()) {
-            DFAState toState = state.getTransitions().get(symbol);
+        for (int classId : state.getTransitions().keySet()) {
+            DFAState toState = state.getTransitions().get(classId);
             int toStateId = toState.getId();
+            int symbol = classes.getRepresentative(classId);
             char symbolChar = (char) symbol;
 
             if (symbol == SyntaxTreeBuilder.DOT)
@@ -279,7 +337,7 @@ public class DFABuilder {
                 dot.append("  ").append(toStateId).append(" [shape=doublecircle];\n");
 
             if (!visited.contains(toState)) {
-                generateDOTRecursive(dot, toState, visited);
+                generateDOTRecursive(dot, toState, visited, classes);
             }
         }
     }
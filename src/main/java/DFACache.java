@@ -0,0 +1,200 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+// On disk cache of the compiled DFAs of a list of patterns, so that a hit skips the whole compilation:
+// a DenseDFA, or the three DFAs of a BidirectionalDFA.
+// One file per list of patterns, named after a hash of the patterns and of the engine version.
+// The last modification time of a file is its last use, the least recently used files are removed
+// when the cache grows past its size limit.
+public class DFACache {
+    // to bump whenever a change of the compilation gives a different automaton for the same patterns
+    static final int ENGINE_VERSION = 2;
+    static final long DEFAULT_MAX_BYTES = 64L << 20;
+    private static final int MAGIC = 0x45444641; // "EDFA"
+    private static final String SUFFIX = ".dfa";
+
+    private final Path directory;
+    private final long maxBytes;
+
+    public DFACache(Path directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    // $XDG_CACHE_HOME/egrep, or ~/.cache/egrep
+    public static Path defaultDirectory() {
+        String cacheHome = System.getenv("XDG_CACHE_HOME");
+        if (cacheHome == null || cacheHome.isEmpty()) cacheHome = System.getProperty("user.home") + File.separator + ".cache";
+        return Paths.get(cacheHome, "egrep");
+    }
+
+    // a cached automaton, with its prefilter when it has one; null when the patterns aren't cached
+    public Matcher load(List<String> patterns) {
+        String key = key(patterns);
+        Path file = directory.resolve(fileName(key));
+        if (!Files.isRegularFile(file)) return null;
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != ENGINE_VERSION) return null;
+            // the hash may collide, the patterns are stored to be sure
+            if (!readString(buffer).equals(key)) return null;
+            String factor = readString(buffer);
+            DenseDFA[] dfas = new DenseDFA[buffer.getInt()];
+            for (int i = 0; i < dfas.length; i++) dfas[i] = readDFA(buffer);
+            Matcher matcher = dfas.length == 1 ? dfas[0] : new BidirectionalDFA(dfas[0], dfas[1], dfas[2]);
+
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            return Main.withPrefilter(matcher, factor);
+        } catch (IOException | RuntimeException e) {
+            // truncated or unreadable, it will be written again
+            return null;
+        }
+    }
+
+    // matcher is a DenseDFA or a BidirectionalDFA
+    public void store(List<String> patterns, Matcher matcher, String factor) throws IOException {
+        String key = key(patterns);
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        byte[] factorBytes = factor.getBytes(StandardCharsets.UTF_8);
+        DenseDFA[] dfas;
+        if (matcher instanceof BidirectionalDFA) {
+            BidirectionalDFA bidirectional = (BidirectionalDFA) matcher;
+            dfas = new DenseDFA[]{bidirectional.getForward(), bidirectional.getUnanchored(), bidirectional.getReverse()};
+        } else {
+            dfas = new DenseDFA[]{(DenseDFA) matcher};
+        }
+
+        int size = 5 * Integer.BYTES + keyBytes.length + factorBytes.length;
+        for (DenseDFA dfa : dfas) size += size(dfa);
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(MAGIC).putInt(ENGINE_VERSION);
+        buffer.putInt(keyBytes.length).put(keyBytes);
+        buffer.putInt(factorBytes.length).put(factorBytes);
+        buffer.putInt(dfas.length);
+        for (DenseDFA dfa : dfas) writeDFA(buffer, dfa);
+        buffer.flip();
+
+        // written aside then moved, a concurrent run never sees half a file
+        Files.createDirectories(directory);
+        Path temporary = Files.createTempFile(directory, "tmp", null);
+        try {
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+                while (buffer.hasRemaining()) channel.write(buffer);
+            }
+            Files.move(temporary, directory.resolve(fileName(key)), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+        evict();
+    }
+
+    // remove the least recently used files until the cache fits in maxBytes
+    private void evict() throws IOException {
+        File[] files = directory.toFile().listFiles((dir, name) -> name.endsWith(SUFFIX));
+        if (files == null) return;
+        long total = 0;
+        for (File file : files) total += file.length();
+        if (total <= maxBytes) return;
+
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (File file : files) {
+            if (total <= maxBytes) break;
+            long length = file.length();
+            if (file.delete()) total -= length;
+        }
+    }
+
+    private static int size(DenseDFA dfa) {
+        return 5 * Integer.BYTES + dfa.getAlphabetSize() * Integer.BYTES
+                + namedChars(dfa) * 2 * Integer.BYTES
+                + dfa.getTransitions().length * Integer.BYTES
+                + Integer.BYTES + dfa.getAccept().length * Long.BYTES;
+    }
+
+    // chars outside of the DOT class
+    private static int namedChars(DenseDFA dfa) {
+        int dotClass = dfa.getClasses().getDotClass();
+        int namedChars = 0;
+        for (int c : dfa.getClassMap()) if (c != dotClass) namedChars++;
+        return namedChars;
+    }
+
+    // state count, class map, transition table and accept set
+    private static void writeDFA(ByteBuffer buffer, DenseDFA dfa) {
+        CharClasses classes = dfa.getClasses();
+        buffer.putInt(dfa.getStartState()).putInt(dfa.getStateCount()).putInt(dfa.getAlphabetSize()).putInt(classes.getDotClass());
+        for (int representative : classes.getRepresentatives()) buffer.putInt(representative);
+        // most chars are in the DOT class, only the others are written
+        int[] classMap = classes.getClassMap();
+        buffer.putInt(namedChars(dfa));
+        for (int c = 0; c < classMap.length; c++)
+            if (classMap[c] != classes.getDotClass()) buffer.putInt(c).putInt(classMap[c]);
+        buffer.asIntBuffer().put(dfa.getTransitions());
+        buffer.position(buffer.position() + dfa.getTransitions().length * Integer.BYTES);
+        buffer.putInt(dfa.getAccept().length);
+        buffer.asLongBuffer().put(dfa.getAccept());
+        buffer.position(buffer.position() + dfa.getAccept().length * Long.BYTES);
+    }
+
+    private static DenseDFA readDFA(ByteBuffer buffer) {
+        int startState = buffer.getInt();
+        int stateCount = buffer.getInt();
+        int alphabetSize = buffer.getInt();
+        int dotClass = buffer.getInt();
+        int[] representatives = new int[alphabetSize];
+        for (int classId = 0; classId < alphabetSize; classId++) representatives[classId] = buffer.getInt();
+        int[] classMap = new int[CharClasses.CHAR_RANGE];
+        Arrays.fill(classMap, dotClass);
+        int namedChars = buffer.getInt();
+        for (int i = 0; i < namedChars; i++) {
+            int c = buffer.getInt();
+            classMap[c] = buffer.getInt();
+        }
+        int[] next = new int[stateCount * alphabetSize];
+        buffer.asIntBuffer().get(next);
+        buffer.position(buffer.position() + next.length * Integer.BYTES);
+        long[] accept = new long[buffer.getInt()];
+        buffer.asLongBuffer().get(accept);
+        buffer.position(buffer.position() + accept.length * Long.BYTES);
+        return new DenseDFA(next, alphabetSize, accept, startState, new CharClasses(classMap, representatives, dotClass));
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static String key(List<String> patterns) {
+        return String.join("\n", patterns);
+    }
+
+    private static String fileName(String key) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(Integer.toString(ENGINE_VERSION).getBytes(StandardCharsets.UTF_8));
+            byte[] hash = digest.digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder name = new StringBuilder();
+            for (int i = 0; i < 16; i++) name.append(String.format("%02x", hash[i]));
+            return name.append(SUFFIX).toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
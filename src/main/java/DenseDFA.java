@@ -0,0 +1,228 @@
+import java.nio.ByteBuffer;
+
+public class DenseDFA implements Matcher {
+    static final int DEAD = -1;
+
+    // next[state * alphabetSize + classId], DEAD when there is no transition
+    private final int[] next;
+    private final int alphabetSize;
+    // one bit per state, set when the state is accepting
+    private final long[] accept;
+    private final int startState;
+    // char -> column of the transition table
+    private final CharClasses classes;
+
+    public DenseDFA(int[] next, int alphabetSize, long[] accept, int startState, CharClasses classes) {
+        this.next = next;
+        this.alphabetSize = alphabetSize;
+        this.accept = accept;
+        this.startState = startState;
+        this.classes = classes;
+    }
+
+    public int getStartState() {
+        return startState;
+    }
+
+    public int getStateCount() {
+        return next.length / alphabetSize;
+    }
+
+    public int getAlphabetSize() {
+        return alphabetSize;
+    }
+
+    public int classOf(int c) {
+        return classes.classOf(c);
+    }
+
+    public int step(int state, int classId) {
+        return next[state * alphabetSize + classId];
+    }
+
+    public boolean isAccept(int state) {
+        return (accept[state >>> 6] & (1L << state)) != 0;
+    }
+
+    public int[] getTransitions() {
+        return next;
+    }
+
+    public long[] getAccept() {
+        return accept;
+    }
+
+    public int[] getClassMap() {
+        return classes.getClassMap();
+    }
+
+    public CharClasses getClasses() {
+        return classes;
+    }
+
+    // whether some state can be reached again from itself: without a cycle an attempt reads at most
+    // as many chars as there are states, and the restarts of search stay linear in the length of the line
+    public boolean hasCycle() {
+        int stateCount = getStateCount();
+        // 0 unvisited, 1 on the path being walked, 2 done
+        byte[] color = new byte[stateCount];
+        int[] stack = new int[stateCount];
+        int[] nextClass = new int[stateCount];
+        for (int root = 0; root < stateCount; root++) {
+            if (color[root] != 0) continue;
+            int top = 0;
+            stack[top++] = root;
+            color[root] = 1;
+            while (top > 0) {
+                int state = stack[top - 1];
+                if (nextClass[state] == alphabetSize) {
+                    color[state] = 2;
+                    top--;
+                    continue;
+                }
+                int target = next[state * alphabetSize + nextClass[state]++];
+                if (target == DEAD || color[target] == 2) continue;
+                if (color[target] == 1) return true;
+                color[target] = 1;
+                stack[top++] = target;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void search(String line, MatchConsumer consumer) {
+
+        // work on the raw tables, the loop only touches primitives
+        int[] next = this.next;
+        long[] accept = this.accept;
+        int[] classMap = classes.getClassMap();
+        int alphabetSize = this.alphabetSize;
+        int startState = this.startState;
+
+        int currentState = startState;
+        int matchStartIndex = 0;
+        int textIndex = 0;
+        int length = line.length();
+
+        while (matchStartIndex < length) {
+            // the end of the line is a dead end too, the attempts after this one may still match
+            int nextState = textIndex < length ? next[currentState * alphabetSize + classMap[line.charAt(textIndex)]] : DEAD;
+
+            if (nextState != DEAD) {
+                currentState = nextState;
+
+                if ((accept[currentState >>> 6] & (1L << currentState)) != 0) {
+                    int matchEndIndex = textIndex;
+                    consumer.match(matchStartIndex, matchEndIndex);
+
+                    // continue searching for the next match
+                    currentState = startState;
+                    textIndex = matchEndIndex + 1;
+                    matchStartIndex = textIndex;
+                } else {
+                    textIndex++;
+                }
+            } else {
+                // no valid transition, return to the start state
+                currentState = startState;
+                textIndex = matchStartIndex + 1;
+                matchStartIndex = textIndex;
+            }
+        }
+    }
+
+    // same walk as search, stopped at the first accepting state
+    @Override
+    public boolean matches(String line) {
+        int[] next = this.next;
+        long[] accept = this.accept;
+        int[] classMap = classes.getClassMap();
+        int alphabetSize = this.alphabetSize;
+        int startState = this.startState;
+
+        int currentState = startState;
+        int matchStartIndex = 0;
+        int textIndex = 0;
+        int length = line.length();
+
+        while (matchStartIndex < length) {
+            // the end of the line is a dead end too, the attempts after this one may still match
+            int nextState = textIndex < length ? next[currentState * alphabetSize + classMap[line.charAt(textIndex)]] : DEAD;
+
+            if (nextState != DEAD) {
+                currentState = nextState;
+                if ((accept[currentState >>> 6] & (1L << currentState)) != 0) return true;
+                textIndex++;
+            } else {
+                // no valid transition, return to the start state
+                currentState = startState;
+                textIndex = matchStartIndex + 1;
+                matchStartIndex = textIndex;
+            }
+        }
+
+        return false;
+    }
+
+    @Override
+    public boolean searchesBytes() {
+        return classes.isAscii();
+    }
+
+    // same walk as search, over UTF-8 bytes: a lead byte is one char, continuation bytes are skipped,
+    // except the first one of a 4 bytes sequence which stands for the low surrogate of the UTF-16 pair
+    @Override
+    public int find(ByteBuffer text, int from, int to) {
+        int[] next = this.next;
+        long[] accept = this.accept;
+        int[] classMap = classes.getClassMap();
+        int alphabetSize = this.alphabetSize;
+        int startState = this.startState;
+        int otherClass = classes.getDotClass();
+
+        int currentState = startState;
+        int matchStartIndex = from;
+        int textIndex = from;
+
+        while (true) {
+            int b = textIndex < to ? text.get(textIndex) & 0xFF : '\n';
+            int classId;
+            if (b < 0x80) {
+                if (b == '\n' || b == '\r') {
+                    if (matchStartIndex < textIndex) {
+                        // the attempt ran out of line without a match, the next ones may still match
+                        currentState = startState;
+                        textIndex = matchStartIndex + 1;
+                        matchStartIndex = textIndex;
+                        continue;
+                    }
+                    if (textIndex == to) return -1;
+                    // end of line, the next one starts from scratch
+                    textIndex++;
+                    matchStartIndex = textIndex;
+                    continue;
+                }
+                classId = classMap[b];
+            } else if (b >= 0xC0 || (textIndex > 0 && (text.get(textIndex - 1) & 0xFF) >= 0xF0)) {
+                classId = otherClass;
+            } else {
+                textIndex++;
+                continue;
+            }
+
+            int nextState = next[currentState * alphabetSize + classId];
+
+            if (nextState != DEAD) {
+                currentState = nextState;
+                if ((accept[currentState >>> 6] & (1L << currentState)) != 0) return textIndex;
+                textIndex++;
+            } else {
+                // no valid transition, return to the start state
+                currentState = startState;
+                textIndex = matchStartIndex + 1;
+                matchStartIndex = textIndex;
+            }
+        }
+    }
+}
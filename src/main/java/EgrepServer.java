@@ -0,0 +1,239 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Long running search server on a Unix domain socket: the JVM stays warm and the compiled matchers are kept
+// between requests. A request is the working directory, charset and colors of the client and its command line
+// arguments. The answer is a sequence of frames, a kind and an int, followed for OUT and ERR by that many bytes:
+// what the search would have printed on the standard output and on the standard error, then its exit status.
+public class EgrepServer {
+    // compiled matchers kept in memory, the least recently used is dropped past this count
+    static final int MAX_MATCHERS = 256;
+
+    // the kinds of frames of an answer
+    static final int OUT = 'o';
+    static final int ERR = 'e';
+    static final int STATUS = 's';
+
+    private final Path socket;
+    // one thread per request, a request waits on disk and on the client as much as it computes
+    private final ExecutorService pool = Executors.newCachedThreadPool();
+    // engine and patterns -> matcher, in access order
+    private final Map<String, Matcher> matchers = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Matcher> eldest) {
+            return size() > MAX_MATCHERS;
+        }
+    };
+
+    public EgrepServer(Path socket) {
+        this.socket = socket;
+    }
+
+    // egrep-<user>.sock in the temporary directory
+    public static Path defaultSocket() {
+        return Paths.get(System.getProperty("java.io.tmpdir"), "egrep-" + System.getProperty("user.name") + ".sock");
+    }
+
+    public void serve() throws IOException {
+        // left behind by a server that was killed
+        Files.deleteIfExists(socket);
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(UnixDomainSocketAddress.of(socket));
+            System.out.println("egrep server listening on " + socket);
+            while (true) {
+                SocketChannel client = server.accept();
+                pool.execute(() -> handle(client));
+            }
+        } finally {
+            pool.shutdownNow();
+            Files.deleteIfExists(socket);
+        }
+    }
+
+    private void handle(SocketChannel client) {
+        try (client;
+             DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(client)))) {
+            File directory = new File(in.readUTF());
+            Charset charset = Charset.forName(in.readUTF());
+            // whether the output of the client is a terminal is only known there
+            boolean color = in.readBoolean();
+            String[] args = new String[in.readInt()];
+            for (int i = 0; i < args.length; i++) args[i] = in.readUTF();
+
+            Response response = new Response(client);
+            PrintStream err = new PrintStream(response.errors(), true, charset);
+            int status = run(args, directory, response, charset, color, err);
+            err.flush();
+            response.send(STATUS, status);
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("egrep server: " + e.getMessage());
+        }
+    }
+
+    // the search of Main, printed to the client; the exit status of egrep
+    private int run(String[] args, File directory, WritableByteChannel response, Charset charset, boolean color,
+                    PrintStream err) {
+        Options options;
+        try {
+            options = Options.parse(args);
+        } catch (IllegalArgumentException e) {
+            err.println(e.getMessage());
+            return 2;
+        }
+
+        if (options.readsStdin() || options.follow) {
+            err.println("egrep: the server searches files, without --follow");
+            return 2;
+        }
+
+        // the lines are printed as the client would have printed them, -q prints nothing at all
+        LineWriter out = options.mode == Options.QUIET ? LineWriter.discard(charset) : new LineWriter(response, charset, color);
+        try {
+            List<String> patterns = Main.readPatterns(options, directory, out);
+            if (patterns == null) {
+                out.flush();
+                return 0;
+            }
+            // a LazyDFA or a PikeVM can't be shared by concurrent requests
+            Matcher matcher = matcher(patterns, options, err).forThread();
+            long matched = Main.scan(options, matcher, directory, out, err);
+            out.flush();
+            return matched > 0 ? 0 : 1;
+        } catch (Exception e) {
+            out.flush();
+            err.println("egrep: " + e.getMessage());
+            // as grep, an invalid pattern or a failed search
+            return 2;
+        }
+    }
+
+    private Matcher matcher(List<String> patterns, Options options, PrintStream err) throws Exception {
+        // every option compile looks at, the same patterns give another matcher with --glushkov
+        String key = (options.lazy ? "lazy" : options.nfa ? "nfa" : options.bitParallel ? "bits" : "dfa")
+                + (options.glushkov ? "-glushkov" : "") + options.errors + "\n" + String.join("\n", patterns);
+        synchronized (matchers) {
+            Matcher matcher = matchers.get(key);
+            if (matcher != null) return matcher;
+        }
+
+        // compiled outside of the lock, two requests for new patterns may compile them at the same time
+        DFACache cache = options.cacheDirectory == null ? null : new DFACache(Paths.get(options.cacheDirectory), DFACache.DEFAULT_MAX_BYTES);
+        Matcher matcher = Main.compile(patterns, options.lazy, options.nfa, options.glushkov, options.bitParallel, options.errors, cache, err);
+        synchronized (matchers) {
+            matchers.put(key, matcher);
+        }
+        return matcher;
+    }
+
+    // client side: send the arguments to the server and copy its answer to out and err; the exit status
+    public static int request(Path socket, String[] args, boolean color, OutputStream out, OutputStream err) throws IOException {
+        try (SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(socket))) {
+            DataOutputStream request = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+            request.writeUTF(new File("").getAbsolutePath());
+            request.writeUTF(Charset.defaultCharset().name());
+            request.writeBoolean(color);
+            request.writeInt(args.length);
+            for (String arg : args) request.writeUTF(arg);
+            request.flush();
+            channel.shutdownOutput();
+
+            DataInputStream response = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+            while (true) {
+                int kind = response.read();
+                if (kind == -1) throw new EOFException("the server closed the connection before the end of the search");
+                int value = response.readInt();
+                if (kind == STATUS) {
+                    out.flush();
+                    return value;
+                }
+                byte[] bytes = response.readNBytes(value);
+                if (kind == ERR) {
+                    // after the lines printed before it
+                    out.flush();
+                    err.write(bytes);
+                    err.flush();
+                } else {
+                    out.write(bytes);
+                }
+            }
+        }
+    }
+
+    // The answer to a request, as frames written to the client: the lines go through a LineWriter writing to it,
+    // the messages through errors(). The workers of a MultiFileScanner and the thread of the request write at
+    // the same time, a frame is written whole under the lock.
+    private static class Response implements WritableByteChannel {
+        private final SocketChannel client;
+        private final ByteBuffer header = ByteBuffer.allocate(5);
+
+        Response(SocketChannel client) {
+            this.client = client;
+        }
+
+        @Override
+        public synchronized int write(ByteBuffer bytes) throws IOException {
+            int length = bytes.remaining();
+            send(OUT, length);
+            while (bytes.hasRemaining()) client.write(bytes);
+            return length;
+        }
+
+        synchronized void send(int kind, int value) throws IOException {
+            header.clear();
+            header.put((byte) kind).putInt(value).flip();
+            while (header.hasRemaining()) client.write(header);
+        }
+
+        // the standard error of the search
+        OutputStream errors() {
+            return new OutputStream() {
+                @Override
+                public void write(int b) throws IOException {
+                    write(new byte[]{(byte) b}, 0, 1);
+                }
+
+                @Override
+                public void write(byte[] bytes, int offset, int length) throws IOException {
+                    synchronized (Response.this) {
+                        send(ERR, length);
+                        ByteBuffer message = ByteBuffer.wrap(bytes, offset, length);
+                        while (message.hasRemaining()) client.write(message);
+                    }
+                }
+            };
+        }
+
+        @Override
+        public boolean isOpen() {
+            return client.isOpen();
+        }
+
+        @Override
+        public void close() {
+            // the connection is closed by the request
+        }
+    }
+}
@@ -0,0 +1,166 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+// Search of a file mapped in memory, the matcher runs directly over the bytes.
+// Line boundaries are only looked for around a match, so lines without match cost no allocation.
+// Without colors a matching line is copied to the output as it is, it is decoded only to highlight its matches.
+public class FileScanner {
+    // a mapping is limited to Integer.MAX_VALUE bytes, big files are mapped window by window
+    static final int WINDOW_SIZE = 1 << 30;
+
+    private final Matcher matcher;
+    private final boolean print;
+    private final LineWriter out;
+    // written before each line, the filename when many files are searched
+    private final String prefix;
+    // the search stops after this many matching lines
+    private final long maxCount;
+    private long count;
+    private byte[] lineBytes = new byte[256];
+    // matches of the line being highlighted
+    private final MatchBuffer matches = new MatchBuffer();
+
+    public FileScanner(Matcher matcher, boolean print) {
+        this(matcher, print, LineWriter.stdout(Charset.defaultCharset(), LineWriter.isTerminal()), "");
+    }
+
+    public FileScanner(Matcher matcher, boolean print, LineWriter out) {
+        this(matcher, print, out, "");
+    }
+
+    public FileScanner(Matcher matcher, boolean print, LineWriter out, String prefix) {
+        this(matcher, print, out, prefix, Long.MAX_VALUE);
+    }
+
+    public FileScanner(Matcher matcher, boolean print, LineWriter out, String prefix, long maxCount) {
+        this.matcher = matcher;
+        this.print = print;
+        this.out = out;
+        this.prefix = prefix;
+        this.maxCount = maxCount;
+    }
+
+    // matching lines found so far
+    public long getCount() {
+        return count;
+    }
+
+    public boolean isDone() {
+        return count >= maxCount;
+    }
+
+    public void scan(File file) throws IOException {
+        if (CompressedInput.isCompressed(file)) {
+            // inflated by another thread while the previous bytes are searched
+            try (ReadableByteChannel channel = CompressedInput.open(file)) {
+                new StreamScanner(this, out).scan(channel);
+            }
+            return;
+        }
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            long size = channel.size();
+            long position = 0;
+
+            while (position < size && !isDone()) {
+                long length = Math.min(WINDOW_SIZE, size - position);
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                int limit = (int) length;
+
+                // cut the window after its last line end so that no line is split between two windows
+                if (position + length < size) {
+                    int lastLineEnd = limit - 1;
+                    while (lastLineEnd >= 0 && !isLineEnd(buffer.get(lastLineEnd))) lastLineEnd--;
+                    if (lastLineEnd >= 0) limit = lastLineEnd + 1;
+                }
+
+                scan(buffer, 0, limit);
+                position += limit;
+            }
+        }
+        out.flush();
+    }
+
+    // search text[from, to), to being a line end or the end of the text
+    public void scan(ByteBuffer text, int from, int to) {
+        if (!matcher.searchesBytes()) {
+            scanLines(text, from, to);
+            return;
+        }
+
+        int index = from;
+        int matchEnd;
+        while (index < to && !isDone() && (matchEnd = matcher.find(text, index, to)) >= 0) {
+            count++;
+            int lineStart = lineStart(text, from, matchEnd);
+            int lineEnd = lineEnd(text, matchEnd, to);
+            if (print) printLine(text, lineStart, lineEnd, null);
+            index = lineEnd;
+        }
+    }
+
+    // the matcher can't deal with bytes, decode every line
+    private void scanLines(ByteBuffer text, int from, int to) {
+        int lineStart = from;
+        while (lineStart < to && !isDone()) {
+            int lineEnd = lineEnd(text, lineStart, to);
+            String line = decode(text, lineStart, lineEnd);
+            // only whether the line matches, its matches are looked for again when they are highlighted
+            if (matcher.matches(line)) {
+                count++;
+                if (print) printLine(text, lineStart, lineEnd, line);
+            }
+            lineStart = nextLineStart(text, lineEnd, to);
+        }
+    }
+
+    // line is the decoded text[lineStart, lineEnd), null when it isn't decoded yet
+    private void printLine(ByteBuffer text, int lineStart, int lineEnd, String line) {
+        out.print(prefix);
+        if (out.isColor()) {
+            if (line == null) line = decode(text, lineStart, lineEnd);
+            matches.clear();
+            matcher.search(line, matches);
+            out.printMatches(line, matches);
+        } else {
+            out.write(text, lineStart, lineEnd);
+        }
+        out.println();
+    }
+
+    private String decode(ByteBuffer text, int from, int to) {
+        int length = to - from;
+        if (lineBytes.length < length) lineBytes = new byte[Math.max(length, lineBytes.length * 2)];
+        text.get(from, lineBytes, 0, length);
+        return new String(lineBytes, 0, length, StandardCharsets.UTF_8);
+    }
+
+    static boolean isLineEnd(byte b) {
+        return b == '\n' || b == '\r';
+    }
+
+    static int lineStart(ByteBuffer text, int from, int index) {
+        while (index > from && !isLineEnd(text.get(index - 1))) index--;
+        return index;
+    }
+
+    static int lineEnd(ByteBuffer text, int index, int to) {
+        while (index < to && !isLineEnd(text.get(index))) index++;
+        return index;
+    }
+
+    // "\r\n" is a single line end, as for BufferedReader.readLine
+    private static int nextLineStart(ByteBuffer text, int lineEnd, int to) {
+        if (lineEnd < to && text.get(lineEnd) == '\r' && lineEnd + 1 < to && text.get(lineEnd + 1) == '\n')
+            return lineEnd + 2;
+        return lineEnd + 1;
+    }
+}
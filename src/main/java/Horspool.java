@@ -0,0 +1,84 @@
+import java.nio.ByteBuffer;
+
+// Boyer-Moore-Horspool search of an ASCII literal: the window is compared from its last char,
+// and on a mismatch it skips by the distance of that char to the end of the needle.
+public class Horspool implements Matcher {
+
+    private final String pattern;
+    private final byte[] needle;
+    // a needle with other chars is only searched through literalMatcher, by KMP
+    private final boolean ascii;
+    // skip distance for each byte, chars outside of the table are never in the needle
+    private final int[] shift = new int[256];
+
+    public Horspool(String pattern) {
+        this.pattern = pattern;
+        this.needle = new byte[pattern.length()];
+        for (int i = 0; i < needle.length; i++) needle[i] = (byte) pattern.charAt(i);
+        this.ascii = pattern.chars().allMatch(c -> c < 0x80);
+
+        int m = needle.length;
+        for (int c = 0; c < shift.length; c++) shift[c] = m;
+        for (int i = 0; i < m - 1; i++) shift[needle[i] & 0xFF] = m - 1 - i;
+    }
+
+    @Override
+    public void search(String text, MatchConsumer consumer) {
+        int m = needle.length;
+        int i = indexOf(text, 0);
+        while (i >= 0) {
+            consumer.match(i, i + m - 1);
+            i = indexOf(text, i + m);
+        }
+    }
+
+    // the search stops at the first match, nothing is collected
+    @Override
+    public boolean matches(String text) {
+        return indexOf(text, 0) >= 0;
+    }
+
+    // start of the first match at from or after, -1 if there is none
+    private int indexOf(String text, int from) {
+
+        int m = needle.length;
+        int first = needle[0];
+        int last = needle[m - 1];
+
+        int i = from;
+        while (i <= text.length() - m) {
+            int c = text.charAt(i + m - 1);
+            // last and first chars before the whole window
+            if (c == last && text.charAt(i) == first && text.startsWith(pattern, i)) return i;
+            i += c < shift.length ? shift[c] : m;
+        }
+        return -1;
+    }
+
+    @Override
+    public boolean searchesBytes() {
+        return ascii;
+    }
+
+    @Override
+    public int find(ByteBuffer text, int from, int to) {
+        int m = needle.length;
+        byte first = needle[0];
+        byte last = needle[m - 1];
+
+        int i = from;
+        while (i <= to - m) {
+            byte c = text.get(i + m - 1);
+            if (c == last && text.get(i) == first && matchesAt(text, i)) return i + m - 1;
+            i += shift[c & 0xFF];
+        }
+
+        return -1;
+    }
+
+    private boolean matchesAt(ByteBuffer text, int index) {
+        for (int j = 1; j < needle.length - 1; j++)
+            if (text.get(index + j) != needle[j]) return false;
+        return true;
+    }
+}
@@ -0,0 +1,190 @@
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+
+// NFA with dense int indexes for its states, used by the subset construction.
+// Groups of states are sorted int arrays, and the ε-closure of every state is computed once.
+// The position automaton of a syntax tree has no ε-transition, the closure of each of its states is itself.
+// The move method reuses scratch arrays, an IndexedNFA must not be shared between threads.
+public class IndexedNFA {
+    // class of an edge taken by every class
+    static final int ANY_CLASS = -1;
+
+    private final int stateCount;
+    private final int startState;
+    private final boolean[] accepting;
+    private final CharClasses classes;
+    // symbol edges of state i: edgeClass / edgeTarget[edgeStart[i] .. edgeStart[i + 1])
+    private final int[] edgeStart;
+    private final int[] edgeClass;
+    private final int[] edgeTarget;
+    // sorted ε-closure of each state
+    private final int[][] closures;
+
+    // scratch for move: a state is in the group being built when mark[state] == generation
+    private final int[] mark;
+    private int generation;
+    private int[] buffer;
+
+    public IndexedNFA(NFA nfa) {
+        // breadth first numbering of the states reachable from the start state
+        Map<NFAState, Integer> index = new HashMap<>();
+        NFAState[] states = new NFAState[16];
+        Queue<NFAState> queue = new ArrayDeque<>();
+        Set<Integer> alphabet = new HashSet<>();
+        int symbolEdges = 0;
+        index.put(nfa.getStartState(), 0);
+        states[0] = nfa.getStartState();
+        queue.add(nfa.getStartState());
+        while (!queue.isEmpty()) {
+            NFAState state = queue.poll();
+            for (Map.Entry<Integer, Set<NFAState>> transition : state.getTransitions().entrySet()) {
+                int symbol = transition.getKey();
+                if (symbol != NFA.EPSILON) {
+                    alphabet.add(symbol);
+                    symbolEdges += transition.getValue().size();
+                }
+                for (NFAState toState : transition.getValue()) {
+                    if (!index.containsKey(toState)) {
+                        if (index.size() == states.length) states = Arrays.copyOf(states, states.length * 2);
+                        states[index.size()] = toState;
+                        index.put(toState, index.size());
+                        queue.add(toState);
+                    }
+                }
+            }
+        }
+
+        this.stateCount = index.size();
+        this.startState = 0;
+        this.accepting = new boolean[stateCount];
+        Integer acceptState = index.get(nfa.getAcceptState());
+        if (acceptState != null) accepting[acceptState] = true;
+        this.classes = new CharClasses(alphabet);
+
+        this.edgeStart = new int[stateCount + 1];
+        this.edgeClass = new int[symbolEdges];
+        this.edgeTarget = new int[symbolEdges];
+        int[][] epsilonTargets = new int[stateCount][];
+        int edge = 0;
+        for (int i = 0; i < stateCount; i++) {
+            edgeStart[i] = edge;
+            Set<NFAState> epsilon = states[i].getTransitions().getOrDefault(NFA.EPSILON, Set.of());
+            epsilonTargets[i] = new int[epsilon.size()];
+            int e = 0;
+            for (NFAState toState : epsilon) epsilonTargets[i][e++] = index.get(toState);
+
+            for (Map.Entry<Integer, Set<NFAState>> transition : states[i].getTransitions().entrySet()) {
+                int symbol = transition.getKey();
+                if (symbol == NFA.EPSILON) continue;
+                int classId = symbol == SyntaxTreeBuilder.DOT ? ANY_CLASS : classes.classOf(symbol);
+                for (NFAState toState : transition.getValue()) {
+                    edgeClass[edge] = classId;
+                    edgeTarget[edge++] = index.get(toState);
+                }
+            }
+        }
+        edgeStart[stateCount] = edge;
+
+        this.mark = new int[stateCount];
+        this.buffer = new int[stateCount];
+        this.closures = new int[stateCount][];
+        int[] stack = new int[stateCount];
+        for (int i = 0; i < stateCount; i++) closures[i] = closure(i, epsilonTargets, stack);
+    }
+
+    // an NFA without ε-transition, the start state being 0: the edges of state i are edgeClass / edgeTarget
+    // [edgeStart[i] .. edgeStart[i + 1]), edgeClass being a class of classes or ANY_CLASS
+    public IndexedNFA(CharClasses classes, int[] edgeStart, int[] edgeClass, int[] edgeTarget, boolean[] accepting) {
+        this.stateCount = accepting.length;
+        this.startState = 0;
+        this.accepting = accepting;
+        this.classes = classes;
+        this.edgeStart = edgeStart;
+        this.edgeClass = edgeClass;
+        this.edgeTarget = edgeTarget;
+
+        this.mark = new int[stateCount];
+        this.buffer = new int[stateCount];
+        this.closures = new int[stateCount][];
+        for (int i = 0; i < stateCount; i++) closures[i] = new int[]{i};
+    }
+
+    // all states reachable from state through ε-transitions, sorted
+    private int[] closure(int state, int[][] epsilonTargets, int[] stack) {
+        generation++;
+        int size = 0;
+        int top = 0;
+        stack[top++] = state;
+        mark[state] = generation;
+        while (top > 0) {
+            int current = stack[--top];
+            buffer[size++] = current;
+            for (int target : epsilonTargets[current]) {
+                if (mark[target] != generation) {
+                    mark[target] = generation;
+                    stack[top++] = target;
+                }
+            }
+        }
+        int[] closure = Arrays.copyOf(buffer, size);
+        Arrays.sort(closure);
+        return closure;
+    }
+
+    public CharClasses getClasses() {
+        return classes;
+    }
+
+    public int getStateCount() {
+        return stateCount;
+    }
+
+    public int[] startSet() {
+        return closures[startState];
+    }
+
+    public boolean isAccept(int[] set) {
+        for (int state : set) if (accepting[state]) return true;
+        return false;
+    }
+
+    // ε-closure of the states reached from set through the edges of classId, sorted
+    public int[] move(int[] set, int classId) {
+        generation++;
+        int size = move(set, classId, 0);
+        int[] result = Arrays.copyOf(buffer, size);
+        Arrays.sort(result);
+        return result;
+    }
+
+    // move from set and from the start set, as if a new match started at every char
+    public int[] moveUnanchored(int[] set, int classId) {
+        generation++;
+        int size = move(set, classId, 0);
+        size = move(startSet(), classId, size);
+        int[] result = Arrays.copyOf(buffer, size);
+        Arrays.sort(result);
+        return result;
+    }
+
+    // add the states reached from set to buffer[size ..), the new size
+    private int move(int[] set, int classId, int size) {
+        for (int state : set) {
+            for (int edge = edgeStart[state]; edge < edgeStart[state + 1]; edge++) {
+                if (edgeClass[edge] != classId && edgeClass[edge] != ANY_CLASS) continue;
+                for (int reached : closures[edgeTarget[edge]]) {
+                    if (mark[reached] != generation) {
+                        mark[reached] = generation;
+                        buffer[size++] = reached;
+                    }
+                }
+            }
+        }
+        return size;
+    }
+}
@@ -1,7 +1,6 @@
-import java.util.ArrayList;
-import java.util.List;
+import java.nio.ByteBuffer;
 
-public class KMP {
+public class KMP implements Matcher {
 
     private final String pattern;
     private final int[] carryOver;
@@ -51,21 +50,64 @@ public class KMP {
         } while (changed);
     }
 
-    public List<Pair> search(String text) {
+    @Override
+    public void search(String text, MatchConsumer consumer) {
+        int end = endOf(text, 0);
+        while (end >= 0) {
+            consumer.match(end - pattern.length() + 1, end);
+            end = endOf(text, end + 1);
+        }
+    }
+
+    // the search stops at the first match, nothing is collected
+    @Override
+    public boolean matches(String text) {
+        return endOf(text, 0) >= 0;
+    }
 
-        List<Pair> matches = new ArrayList<>();
+    // index of the last char of the first match starting at from or after, -1 if there is none
+    private int endOf(String text, int from) {
 
-        int i = 0, j = 0;
+        int i = from, j = 0;
 
         while (i < text.length()) {
             if (pattern.charAt(j) == text.charAt(i)) {
                 i++;
                 j++;
 
-                if (j == pattern.length()) {
-                    matches.add(new Pair(i - j, i - 1));
+                if (j == pattern.length()) return i - 1;
+            } else if (j != 0) {
+                j = carryOver[j];
+                if (j == -1) {
                     j = 0;
+                    i++;
                 }
+            } else {
+                i++;
+            }
+
+        }
+
+        return -1;
+    }
+
+    @Override
+    public boolean searchesBytes() {
+        return pattern.chars().allMatch(c -> c < 0x80);
+    }
+
+    // an ASCII pattern can only match whole chars of an UTF-8 text, and never spans a line end
+    @Override
+    public int find(ByteBuffer text, int from, int to) {
+
+        int i = from, j = 0;
+
+        while (i < to) {
+            if (pattern.charAt(j) == (text.get(i) & 0xFF)) {
+                i++;
+                j++;
+
+                if (j == pattern.length()) return i - 1;
             } else if (j != 0) {
                 j = carryOver[j];
                 if (j == -1) {
@@ -75,9 +117,8 @@ public class KMP {
             } else {
                 i++;
             }
-
         }
 
-        return matches; // No match found
+        return -1;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,257 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+// DFA determinized on the fly: a group of NFA states only becomes a DFA state when the scanner reaches it.
+// The states are kept in a cache bounded by a memory budget and flushed when it is exceeded,
+// if the cache is flushed too often the search goes on as a plain NFA simulation.
+// find and matches only need the first end of a match: they go to a second LazyDFA, unanchored as the one of
+// DFABuilder.NFAToUnanchoredDFA, which reads every char once. As BidirectionalDFA does, search marks the starts
+// with a third one, unanchored over the NFA of the reversed tree, and the LazyDFA of the patterns goes from each
+// start to its earliest end, so that no char is read again after a failed attempt.
+// A LazyDFA mutates its cache while searching, it must not be shared between threads.
+public class LazyDFA implements Matcher {
+    static final int UNKNOWN = -2;
+    static final long DEFAULT_CACHE_BYTES = 8L << 20;
+    // a flush is wasteful when less than this many chars per cached state were scanned since the previous one
+    private static final int MIN_CHARS_PER_STATE = 10;
+    // rough cost of a cached group of NFA states, on top of its row in the transition table
+    private static final int SET_OVERHEAD_BYTES = 64;
+
+    private final NFA nfa;
+    private final NFA reverseNfa;
+    private final IndexedNFA indexed;
+    private final CharClasses classes;
+    private final int classCount;
+    private final long cacheBytes;
+    // a match may start at every char, the start set is added at each step
+    private final boolean unanchored;
+    // the unanchored LazyDFAs of the same NFA and of the reversed one, null in the unanchored ones themselves
+    private final LazyDFA ends;
+    private final LazyDFA reverse;
+    // where the matches of the line being searched start
+    private final MatchStarts starts = new MatchStarts();
+
+    // cached groups of NFA states, the start group is always state 0
+    private final StateSetTable states = new StateSetTable();
+    private int[] next;
+    private boolean[] accept;
+    private long usedBytes;
+    private long scannedSinceFlush;
+    // once simulating, the start group and the two groups of the simulation replace the cache
+    private boolean simulation;
+    private final int[][] simulated = new int[3][];
+
+    // reverseNfa is the NFA of the reversed tree
+    public LazyDFA(NFA nfa, NFA reverseNfa) {
+        this(nfa, reverseNfa, DEFAULT_CACHE_BYTES);
+    }
+
+    public LazyDFA(NFA nfa, NFA reverseNfa, long cacheBytes) {
+        this(nfa, reverseNfa, new IndexedNFA(nfa), cacheBytes, false);
+    }
+
+    private LazyDFA(NFA nfa, NFA reverseNfa, IndexedNFA indexed, long cacheBytes, boolean unanchored) {
+        this.nfa = nfa;
+        this.reverseNfa = reverseNfa;
+        this.indexed = indexed;
+        this.classes = indexed.getClasses();
+        this.classCount = classes.getClassCount();
+        this.cacheBytes = cacheBytes;
+        this.unanchored = unanchored;
+        this.ends = unanchored ? null : new LazyDFA(nfa, null, indexed, cacheBytes, true);
+        this.reverse = unanchored ? null : new LazyDFA(reverseNfa, null, new IndexedNFA(reverseNfa), cacheBytes, true);
+        this.next = new int[16 * classCount];
+        this.accept = new boolean[16];
+        resetCache();
+    }
+
+    // every thread builds its own cache
+    @Override
+    public Matcher forThread() {
+        return new LazyDFA(nfa, reverseNfa, cacheBytes);
+    }
+
+    public boolean isSimulation() {
+        return simulation;
+    }
+
+    public int getCachedStateCount() {
+        return states.size();
+    }
+
+    // drop every cached state but the start one
+    private void resetCache() {
+        states.clear();
+        usedBytes = 0;
+        scannedSinceFlush = 0;
+        // unanchored, nothing is reached before the first char
+        addState(unanchored ? new int[0] : indexed.startSet());
+    }
+
+    private int addState(int[] group) {
+        int id = states.intern(group);
+        if (id == accept.length) {
+            next = Arrays.copyOf(next, next.length * 2);
+            accept = Arrays.copyOf(accept, accept.length * 2);
+        }
+        Arrays.fill(next, id * classCount, (id + 1) * classCount, UNKNOWN);
+        accept[id] = indexed.isAccept(group);
+        usedBytes += (long) classCount * Integer.BYTES + SET_OVERHEAD_BYTES + (long) group.length * Integer.BYTES;
+        return id;
+    }
+
+    public int step(int state, int classId) {
+        scannedSinceFlush++;
+        if (simulation) return simulate(state, classId);
+
+        int target = next[state * classCount + classId];
+        if (target != UNKNOWN) return target;
+
+        int[] newStates = move(states.get(state), classId);
+        if (newStates.length == 0 && !unanchored) {
+            next[state * classCount + classId] = DenseDFA.DEAD;
+            return DenseDFA.DEAD;
+        }
+
+        int id = states.indexOf(newStates);
+        if (id >= 0) {
+            next[state * classCount + classId] = id;
+            return id;
+        }
+
+        if (usedBytes > cacheBytes) {
+            // the cache is full, start over with the start state and the state we are going to
+            boolean wasteful = scannedSinceFlush < (long) MIN_CHARS_PER_STATE * states.size();
+            resetCache();
+            if (wasteful) {
+                startSimulation();
+                return simulate(1, newStates);
+            }
+            return addState(newStates);
+        }
+
+        id = addState(newStates);
+        next[state * classCount + classId] = id;
+        return id;
+    }
+
+    // NFA simulation, nothing is cached anymore: the current group of states lives in one of two slots
+    private void startSimulation() {
+        simulation = true;
+        simulated[0] = states.get(0);
+        states.clear();
+    }
+
+    private int simulate(int state, int classId) {
+        int[] newStates = move(simulated[state], classId);
+        if (newStates.length == 0 && !unanchored) return DenseDFA.DEAD;
+        // never overwrite the slot we come from
+        return simulate(state == 1 ? 2 : 1, newStates);
+    }
+
+    private int[] move(int[] group, int classId) {
+        return unanchored ? indexed.moveUnanchored(group, classId) : indexed.move(group, classId);
+    }
+
+    private int simulate(int slot, int[] newStates) {
+        simulated[slot] = newStates;
+        accept[slot] = indexed.isAccept(newStates);
+        return slot;
+    }
+
+    public boolean isAccept(int state) {
+        return accept[state];
+    }
+
+    @Override
+    public void search(String line, MatchConsumer consumer) {
+        int length = line.length();
+        if (!markStarts(line)) return;
+
+        int matchStartIndex = starts.next(0);
+        while (matchStartIndex >= 0) {
+            // a match starts here, the DFA of the patterns can't die before its earliest end
+            int currentState = 0;
+            int textIndex = matchStartIndex;
+            while (true) {
+                currentState = step(currentState, classes.classOf(line.charAt(textIndex)));
+                if (currentState == DenseDFA.DEAD) return;
+                if (accept[currentState]) break;
+                if (++textIndex == length) return;
+            }
+            consumer.match(matchStartIndex, textIndex);
+
+            // continue searching for the next match
+            matchStartIndex = starts.next(textIndex + 1);
+        }
+    }
+
+    // the reverse LazyDFA from the end of the line to its start; false when no match starts anywhere
+    private boolean markStarts(String line) {
+        int length = line.length();
+        starts.clear(length);
+
+        boolean found = false;
+        int currentState = 0;
+        for (int textIndex = length - 1; textIndex >= 0; textIndex--) {
+            currentState = reverse.step(currentState, reverse.classes.classOf(line.charAt(textIndex)));
+            if (reverse.accept[currentState]) {
+                starts.set(textIndex);
+                found = true;
+            }
+        }
+        return found;
+    }
+
+
+    // whether a match ends somewhere, the unanchored DFA stops at the first end
+    @Override
+    public boolean matches(String line) {
+        if (!unanchored) return ends.matches(line);
+
+        int currentState = 0;
+        for (int textIndex = 0; textIndex < line.length(); textIndex++) {
+            currentState = step(currentState, classes.classOf(line.charAt(textIndex)));
+            if (accept[currentState]) return true;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean searchesBytes() {
+        return classes.isAscii();
+    }
+
+    // the unanchored DFA over UTF-8 bytes: a lead byte is one char, continuation bytes are skipped,
+    // except the first one of a 4 bytes sequence which stands for the low surrogate of the UTF-16 pair
+    @Override
+    public int find(ByteBuffer text, int from, int to) {
+        if (!unanchored) return ends.find(text, from, to);
+
+        int[] classMap = classes.getClassMap();
+        int otherClass = classes.getDotClass();
+
+        int currentState = 0;
+        for (int textIndex = from; textIndex < to; textIndex++) {
+            int b = text.get(textIndex) & 0xFF;
+            int classId;
+            if (b < 0x80) {
+                if (b == '\n' || b == '\r') {
+                    // end of line, the next one starts from scratch
+                    currentState = 0;
+                    continue;
+                }
+                classId = classMap[b];
+            } else if (b >= 0xC0 || (textIndex > 0 && (text.get(textIndex - 1) & 0xFF) >= 0xF0)) {
+                classId = otherClass;
+            } else {
+                continue;
+            }
+
+            currentState = step(currentState, classId);
+            if (accept[currentState]) return textIndex;
+        }
+
+        return -1;
+    }
+}
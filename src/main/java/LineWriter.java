@@ -0,0 +1,175 @@
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+// Output of the search: bytes gathered in a large buffer and written to a channel when it is full or flushed,
+// instead of a synchronized PrintStream flushed at every line.
+// The lines are copied as they were read, only the text of egrep itself is encoded in the charset.
+// The matches are highlighted only when colors are on, without colors the matches of a line aren't even needed.
+// A LineWriter must not be shared between threads.
+public class LineWriter {
+    static final int BUFFER_SIZE = 1 << 20;
+    // the output of a chunk or of a file put together aside, before it is written in order
+    static final int MEMORY_BUFFER_SIZE = 8 << 10;
+
+    private static final byte[] RED = "\u001B[31m".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] RESET = "\u001B[0m".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
+
+    private final WritableByteChannel channel;
+    private final ByteBuffer buffer;
+    private final Charset charset;
+    private final boolean color;
+    // the text of egrep goes out in charset, the lines decoded to be searched go back to UTF-8
+    private final CharsetEncoder encoder;
+    private final CharsetEncoder lineEncoder = encoder(StandardCharsets.UTF_8);
+    private boolean error;
+
+    public LineWriter(WritableByteChannel channel, Charset charset, boolean color) {
+        this(channel, ByteBuffer.allocateDirect(BUFFER_SIZE), charset, color);
+    }
+
+    private LineWriter(WritableByteChannel channel, ByteBuffer buffer, Charset charset, boolean color) {
+        this.channel = channel;
+        this.buffer = buffer;
+        this.charset = charset;
+        this.color = color;
+        this.encoder = encoder(charset);
+    }
+
+    // the standard output, written to without going through System.out
+    public static LineWriter stdout(Charset charset, boolean color) {
+        return new LineWriter(new FileOutputStream(FileDescriptor.out).getChannel(), charset, color);
+    }
+
+    // a writer that writes nothing, for -q
+    public static LineWriter discard(Charset charset) {
+        return new LineWriter(Channels.newChannel(OutputStream.nullOutputStream()), ByteBuffer.allocate(MEMORY_BUFFER_SIZE), charset, false);
+    }
+
+    // whether colors go to the standard output when nothing asks for them: it must be a terminal,
+    // System.console() tells whether the standard input is one too, no pipe goes in or out
+    public static boolean isTerminal() {
+        return System.console() != null;
+    }
+
+    // a writer of the same charset and colors, writing to bytes through a small buffer
+    public LineWriter inMemory(OutputStream bytes) {
+        return new LineWriter(Channels.newChannel(bytes), ByteBuffer.allocate(MEMORY_BUFFER_SIZE), charset, color);
+    }
+
+    public Charset getCharset() {
+        return charset;
+    }
+
+    public boolean isColor() {
+        return color;
+    }
+
+    public void print(String text) {
+        encode(encoder, text, 0, text.length());
+    }
+
+    public void println(String text) {
+        print(text);
+        println();
+    }
+
+    public void println() {
+        write(LINE_SEPARATOR);
+    }
+
+    // text[from, to) as it is
+    public void write(ByteBuffer text, int from, int to) {
+        while (from < to) {
+            if (!buffer.hasRemaining()) flushBuffer();
+            int length = Math.min(to - from, buffer.remaining());
+            buffer.put(buffer.position(), text, from, length);
+            buffer.position(buffer.position() + length);
+            from += length;
+        }
+    }
+
+    public void write(byte[] bytes) {
+        if (bytes.length > buffer.remaining()) {
+            flushBuffer();
+            // too big to go through the buffer
+            if (bytes.length > buffer.capacity()) {
+                writeFully(ByteBuffer.wrap(bytes));
+                return;
+            }
+        }
+        buffer.put(bytes);
+    }
+
+    // line with its matches highlighted, in UTF-8 as the lines are read; the colors must be on
+    public void printMatches(String line, MatchBuffer matches) {
+        int currentIndex = 0;
+        for (int i = 0; i < matches.size(); i++) {
+            encode(lineEncoder, line, currentIndex, matches.start(i));
+            write(RED);
+            encode(lineEncoder, line, matches.start(i), matches.end(i) + 1);
+            write(RESET);
+            currentIndex = matches.end(i) + 1;
+        }
+        encode(lineEncoder, line, currentIndex, line.length());
+    }
+
+    public void flush() {
+        flushBuffer();
+    }
+
+    // whether a write failed, the reader went away
+    public boolean checkError() {
+        return error;
+    }
+
+    private void encode(CharsetEncoder encoder, String text, int from, int to) {
+        // most of the text is ASCII, it is the same in every charset egrep may print in
+        int index = from;
+        while (index < to && buffer.hasRemaining()) {
+            char c = text.charAt(index);
+            if (c >= 0x80) break;
+            buffer.put((byte) c);
+            index++;
+        }
+        if (index == to) return;
+
+        CharBuffer chars = CharBuffer.wrap(text, index, to);
+        encoder.reset();
+        while (encoder.encode(chars, buffer, true).isOverflow()) flushBuffer();
+        while (encoder.flush(buffer).isOverflow()) flushBuffer();
+    }
+
+    private void flushBuffer() {
+        buffer.flip();
+        writeFully(buffer);
+        buffer.clear();
+    }
+
+    // as PrintStream, a failed write doesn't stop the search, the output is lost from then on
+    private void writeFully(ByteBuffer bytes) {
+        if (error) return;
+        try {
+            while (bytes.hasRemaining()) channel.write(bytes);
+        } catch (IOException e) {
+            error = true;
+        }
+    }
+
+    private static CharsetEncoder encoder(Charset charset) {
+        // as PrintStream, what the charset can't encode is replaced
+        return charset.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+}
@@ -0,0 +1,114 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+// Extraction of a literal factor that every match of the syntax tree contains.
+// A line without this factor can't match, so it can be skipped with a literal search before running the automaton.
+public class LiteralExtractor {
+
+    // what is known of the strings matched by a subtree
+    private static class Factors {
+        // the only string matched, null when there are many
+        String exact;
+        // strings every match starts with, ends with, and contains
+        String prefix = "";
+        String suffix = "";
+        String required = "";
+
+        static Factors of(String exact) {
+            Factors factors = new Factors();
+            factors.exact = exact;
+            factors.prefix = exact;
+            factors.suffix = exact;
+            factors.required = exact;
+            return factors;
+        }
+    }
+
+    // the longest required factor found, empty when there is none
+    public static String requiredFactor(SyntaxTreeNode root) {
+        if (root == null) return "";
+        return factors(root).required;
+    }
+
+    // the literals of a tree made only of alternations of ASCII literals, null when it has anything else
+    public static List<String> alternationLiterals(SyntaxTreeNode root) {
+        if (root == null) return null;
+        List<String> literals = new ArrayList<>();
+        // the alternatives from left to right, with a stack as the other passes over the tree
+        Deque<SyntaxTreeNode> stack = new ArrayDeque<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            SyntaxTreeNode tree = stack.pop();
+            if (tree.operation == SyntaxTreeBuilder.ALTERN) {
+                stack.push(tree.right);
+                stack.push(tree.left);
+                continue;
+            }
+            String exact = factors(tree).exact;
+            if (exact == null) return null;
+            literals.add(exact);
+        }
+        return literals;
+    }
+
+    // from the leaves up, the factors of the subtrees whose parent isn't reached yet on a stack
+    private static Factors factors(SyntaxTreeNode tree) {
+        Deque<Factors> stack = new ArrayDeque<>();
+        for (SyntaxTreeNode node : SyntaxTreeBuilder.postOrder(tree)) {
+            Factors right = node.right != null ? stack.pop() : null;
+            Factors left = node.left != null ? stack.pop() : null;
+            stack.push(factors(node, left, right));
+        }
+        return stack.pop();
+    }
+
+    // the factors of a node from those of its operands
+    private static Factors factors(SyntaxTreeNode tree, Factors left, Factors right) {
+        if (tree.operation == SyntaxTreeBuilder.CONCAT) {
+            if (left.exact != null && right.exact != null) return Factors.of(left.exact + right.exact);
+
+            Factors factors = new Factors();
+            factors.prefix = left.exact != null ? left.exact + right.prefix : left.prefix;
+            factors.suffix = right.exact != null ? left.suffix + right.exact : right.suffix;
+            // the end of the left part and the start of the right part are adjacent in every match
+            factors.required = longest(longest(left.required, right.required), left.suffix + right.prefix);
+            factors.required = longest(factors.required, longest(factors.prefix, factors.suffix));
+            return factors;
+        }
+        if (tree.operation == SyntaxTreeBuilder.ALTERN) {
+            if (left.exact != null && left.exact.equals(right.exact)) return left;
+
+            Factors factors = new Factors();
+            factors.prefix = commonPrefix(left.prefix, right.prefix);
+            factors.suffix = commonSuffix(left.suffix, right.suffix);
+            factors.required = left.required.equals(right.required) ? left.required : "";
+            factors.required = longest(factors.required, longest(factors.prefix, factors.suffix));
+            return factors;
+        }
+        if (tree.operation == SyntaxTreeBuilder.ASTERISK || tree.operation == SyntaxTreeBuilder.DOT) {
+            // can match the empty string, or any char
+            return new Factors();
+        }
+        // only ASCII chars go to the literal search, the others are treated like a DOT
+        if (tree.operation >= 0x80) return new Factors();
+        return Factors.of(Character.toString((char) tree.operation));
+    }
+
+    private static String longest(String a, String b) {
+        return b.length() > a.length() ? b : a;
+    }
+
+    private static String commonPrefix(String a, String b) {
+        int i = 0;
+        while (i < a.length() && i < b.length() && a.charAt(i) == b.charAt(i)) i++;
+        return a.substring(0, i);
+    }
+
+    private static String commonSuffix(String a, String b) {
+        int i = 0;
+        while (i < a.length() && i < b.length() && a.charAt(a.length() - 1 - i) == b.charAt(b.length() - 1 - i)) i++;
+        return a.substring(a.length() - i);
+    }
+}
@@ -1,51 +1,203 @@
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.List;
 
 public class Main {
+    // needles longer than this are searched with Two-Way, shorter ones with Horspool
+    static final int TWO_WAY_THRESHOLD = 32;
+    // shorter required factors don't skip enough text to pay for the literal search
+    static final int MIN_PREFILTER_LENGTH = 2;
+    // past this many states the DFA is given up for a simulation of the NFA
+    static final int MAX_DFA_STATES = 10_000;
+    // the unanchored DFAs of a linear search are given up past this many times the states of the DFA
+    static final int MAX_UNANCHORED_GROWTH = 8;
+    // shorter matches let BNDM skip too few chars to pay for reading its windows backwards
+    static final int MIN_BNDM_LENGTH = 6;
 
-    public static List<Pair> search(DFA minDfa, String line) {
+    public static List<Pair> search(DenseDFA minDfa, String line) {
+        return minDfa.search(line);
+    }
 
-        List<Pair> matches = new ArrayList<>();
+    // Horspool and Two-Way compare bytes, the other literals are searched by KMP over the decoded chars
+    public static Matcher literalMatcher(String literal) {
+        if (!literal.chars().allMatch(c -> c < 0x80)) return new KMP(literal);
+        if (literal.length() > TWO_WAY_THRESHOLD) return new TwoWay(literal);
+        return new Horspool(literal);
+    }
 
-        DFAState currentState = minDfa.getStartState();
-        int matchStartIndex = 0;
-        int textIndex = 0;
+    // compile the patterns into the cheapest matcher able to search them all at once
+    public static Matcher compile(List<String> patterns, boolean lazy) throws Exception {
+        return compile(patterns, lazy, false);
+    }
 
-        while (textIndex < line.length()) {
-            int currentChar = line.charAt(textIndex);
+    // nfa runs the Pike VM over the NFA instead of building a DFA
+    public static Matcher compile(List<String> patterns, boolean lazy, boolean nfa) throws Exception {
+        return compile(patterns, lazy, nfa, false, false, 0, null, System.err);
+    }
 
-            DFAState nextState = currentState.getTransitions(currentChar);
-            if (nextState == null)
-                nextState = currentState.getTransitions(SyntaxTreeBuilder.DOT);
+    // glushkov builds the DFA from the position automaton of the tree instead of its Thompson NFA;
+    // bitParallel simulates that automaton in a long instead of building a DFA, when it is small enough;
+    // errors above 0 matches within that many errors, with that automaton too;
+    // with a cache, the DFA of the patterns is read from it or written to it, a failed write is reported to err
+    public static Matcher compile(List<String> patterns, boolean lazy, boolean nfa, boolean glushkov, boolean bitParallel,
+                                  int errors, DFACache cache, PrintStream err) throws Exception {
 
-            if (nextState != null) {
-                currentState = nextState;
+        // neither a literal nor a required factor has to be in an approximate match
+        if (errors > 0) return approximateMatcher(syntaxTree(patterns), errors);
 
-                if (currentState.isAccept()) {
-                    int matchEndIndex = textIndex;
-                    matches.add(new Pair(matchStartIndex, matchEndIndex));
+        if (patterns.size() == 1 && isSimpleConcatenation(patterns.get(0))) return literalMatcher(patterns.get(0));
 
-                    // continue searching for the next match
-                    currentState = minDfa.getStartState();
-                    textIndex = matchEndIndex + 1;
-                    matchStartIndex = textIndex;
-                } else {
-                    textIndex++;
-                }
-            } else {
-                // no valid transition, return to the start state
-                currentState = minDfa.getStartState();
-                textIndex = matchStartIndex + 1;
-                matchStartIndex = textIndex;
+        // only the DFA is cached, the other matchers are cheap to build or can't be saved
+        if (lazy || nfa || bitParallel) cache = null;
+        if (cache != null) {
+            Matcher cached = cache.load(patterns);
+            if (cached != null) return cached;
+        }
+
+        long startTree = System.currentTimeMillis();
+        List<SyntaxTreeNode> trees = syntaxTrees(patterns);
+//        System.out.println("Time tree: " + (System.currentTimeMillis() - startTree) + "ms");
+
+        // alternations of literals don't need an automaton built from the NFA
+        List<String> literals = alternationLiterals(trees);
+        if (literals != null) {
+            if (literals.size() == 1) return literalMatcher(literals.get(0));
+            return new AhoCorasick(literals);
+        }
+        SyntaxTreeNode root = alternation(trees);
+
+        Matcher matcher = nfa ? pikeVM(root) : bitParallel ? bitParallelMatcher(root) : null;
+        if (matcher == null) matcher = buildAutomaton(root, lazy, glushkov);
+
+        String factor = LiteralExtractor.requiredFactor(root);
+        if (cache != null && (matcher instanceof DenseDFA || matcher instanceof BidirectionalDFA)) {
+            try {
+                cache.store(patterns, matcher, factor);
+            } catch (IOException e) {
+                err.println("egrep: can't write the cache: " + e.getMessage());
             }
         }
+        return withPrefilter(matcher, factor);
+    }
+
+    // a single tree for all the patterns: the alternation of their trees
+    static SyntaxTreeNode syntaxTree(List<String> patterns) throws Exception {
+        List<SyntaxTreeNode> trees = syntaxTrees(patterns);
+        return alternation(trees);
+    }
+
+    private static List<SyntaxTreeNode> syntaxTrees(List<String> patterns) throws Exception {
+        List<SyntaxTreeNode> trees = new ArrayList<>(patterns.size());
+        for (String pattern : patterns) trees.add(SyntaxTreeBuilder.buildSyntaxTree(pattern));
+        return trees;
+    }
+
+    // the trees of the patterns are the alternatives of a single tree
+    private static SyntaxTreeNode alternation(List<SyntaxTreeNode> trees) {
+        if (trees.isEmpty()) return null;
+        return SyntaxTreeBuilder.alternation(trees.toArray(new SyntaxTreeNode[0]), 0, trees.size());
+    }
+
+    // the literals of every pattern, null when one of them is more than an alternation of literals
+    private static List<String> alternationLiterals(List<SyntaxTreeNode> trees) {
+        List<String> literals = new ArrayList<>();
+        for (SyntaxTreeNode tree : trees) {
+            List<String> treeLiterals = LiteralExtractor.alternationLiterals(tree);
+            if (treeLiterals == null) return null;
+            literals.addAll(treeLiterals);
+        }
+        return literals.isEmpty() ? null : literals;
+    }
+
+    // skip the lines without the literal every match contains
+    static Matcher withPrefilter(Matcher matcher, String factor) {
+        if (factor.length() >= MIN_PREFILTER_LENGTH) return new PrefilteredMatcher(factor, matcher);
+        return matcher;
+    }
+
+    // Shift-And, or BNDM when the matches are long enough to skip chars; null past 64 states
+    private static Matcher bitParallelMatcher(SyntaxTreeNode root) {
+        BitParallelNFA forward = BitParallelNFA.of(root);
+        if (forward == null) return null;
+        BitParallelNFA reverse = BitParallelNFA.of(SyntaxTreeBuilder.reverse(root));
+        if (forward.minLength() >= MIN_BNDM_LENGTH) return new BNDM(forward, reverse);
+        return new ShiftAnd(forward, reverse);
+    }
+
+    // the sets of Wu and Manber live in longs, there is no fallback past 64 states
+    private static Matcher approximateMatcher(SyntaxTreeNode root, int errors) {
+        BitParallelNFA forward = BitParallelNFA.of(root);
+        if (forward == null)
+            throw new IllegalArgumentException("--errors needs patterns of less than " + BitParallelNFA.MAX_STATES + " chars");
+        Matcher matcher = new ApproximateMatcher(forward, BitParallelNFA.of(SyntaxTreeBuilder.reverse(root)), errors);
+
+        // k errors change at most k of k + 1 pieces of the required factor, a match contains one of the others
+        String factor = LiteralExtractor.requiredFactor(root);
+        int pieceCount = errors + 1;
+        // Aho-Corasick only searches ASCII
+        if (factor.length() / pieceCount < MIN_PREFILTER_LENGTH || !factor.chars().allMatch(c -> c < AhoCorasick.ASCII_RANGE))
+            return matcher;
+        List<String> pieces = new ArrayList<>();
+        for (int i = 0; i < pieceCount; i++)
+            pieces.add(factor.substring(i * factor.length() / pieceCount, (i + 1) * factor.length() / pieceCount));
+        return new PrefilteredMatcher(pieces, matcher);
+    }
 
-        return matches;
+    private static Matcher pikeVM(SyntaxTreeNode root) {
+        return new PikeVM(NFABuilder.syntaxTreeToProgram(root), NFABuilder.syntaxTreeToProgram(SyntaxTreeBuilder.reverse(root)));
+    }
+
+    private static Matcher buildAutomaton(SyntaxTreeNode root, boolean lazy, boolean glushkov) {
+        long startNFA = System.currentTimeMillis();
+        // the position automaton is built by the DFA builder, straight from the tree
+        NFA nfa = glushkov && !lazy ? null : NFABuilder.syntaxTreeToNFA(root);
+//        System.out.println("Time NFA: " + (System.currentTimeMillis() - startNFA) + "ms");
+//        System.out.println(NFABuilder.generateDOT(nfa));
+        if (lazy) {
+            // determinize only the states the scanner reaches
+            return new LazyDFA(nfa, NFABuilder.syntaxTreeToNFA(SyntaxTreeBuilder.reverse(root)));
+        }
+
+        long startDFA = System.currentTimeMillis();
+        DFA dfa = glushkov ? DFABuilder.syntaxTreeToDFA(root, MAX_DFA_STATES) : DFABuilder.NFAToDFA(nfa, MAX_DFA_STATES);
+//        System.out.println("Time DFA: " + (System.currentTimeMillis() - startDFA) + "ms");
+        // the subsets explode, simulate the NFA in linear time instead
+        if (dfa == null) return pikeVM(root);
+        //System.out.println(DFABuilder.generateDOT(dfa));
+        long startMin = System.currentTimeMillis();
+        DFA minDfa = DFABuilder.minimizeDFA(dfa);
+//        System.out.println("Time min: " + (System.currentTimeMillis() - startMin) + "ms");
+//        System.out.println(DFABuilder.generateDOT(minDfa));
+        DenseDFA dense = DFABuilder.toDenseDFA(minDfa);
+        // without a cycle the attempts are short, going back after each one costs little
+        if (!dense.hasCycle()) return dense;
+
+        // the ends of the matches in one pass and their starts in one pass backwards, instead of the restarts
+        int maxStates = (int) Math.min(MAX_DFA_STATES, (long) MAX_UNANCHORED_GROWTH * dfa.getStates().size() + 64);
+        DFA unanchored = glushkov ? DFABuilder.syntaxTreeToUnanchoredDFA(root, maxStates) : DFABuilder.NFAToUnanchoredDFA(nfa, maxStates);
+        if (unanchored == null) return dense;
+        SyntaxTreeNode reverseRoot = SyntaxTreeBuilder.reverse(root);
+        DFA reverse = glushkov ? DFABuilder.syntaxTreeToUnanchoredDFA(reverseRoot, maxStates)
+                : DFABuilder.NFAToUnanchoredDFA(NFABuilder.syntaxTreeToNFA(reverseRoot), maxStates);
+        if (reverse == null) return dense;
+        return new BidirectionalDFA(dense, DFABuilder.toDenseDFA(DFABuilder.minimizeDFA(unanchored)),
+                DFABuilder.toDenseDFA(DFABuilder.minimizeDFA(reverse)));
+    }
+
+    // one pattern per line, empty lines are ignored
+    public static List<String> readPatterns(String filename) throws IOException {
+        List<String> patterns = new ArrayList<>();
+        for (String line : Files.readAllLines(Paths.get(filename), StandardCharsets.UTF_8))
+            if (!line.isEmpty()) patterns.add(line);
+        return patterns;
     }
 
     public static boolean isSimpleConcatenation(String regex) {
@@ -57,111 +209,192 @@ public class Main {
     }
 
     public static void printResult(List<Pair> matches, String line) {
-        if (!matches.isEmpty()) {
+        printResult(matches, line, System.out);
+    }
+
+    public static void printResult(List<Pair> matches, String line, PrintStream out) {
+        MatchBuffer buffer = new MatchBuffer();
+        for (Pair couple : matches) buffer.match(couple.getStartIndex(), couple.getEndIndex());
+        printResult(buffer, line, out);
+    }
+
+    public static void printResult(MatchBuffer matches, String line, PrintStream out) {
+        if (matches.size() > 0) {
             StringBuilder highlightedLine = new StringBuilder();
             int currentIndex = 0;
-            for (Pair couple : matches) {
+            for (int i = 0; i < matches.size(); i++) {
                 // Append text before the match
-                if (couple.getStartIndex() > currentIndex) {
-                    highlightedLine.append(line, currentIndex, couple.getStartIndex());
+                if (matches.start(i) > currentIndex) {
+                    highlightedLine.append(line, currentIndex, matches.start(i));
                 }
 
                 // Append the matched text in red
-                String matchedText = line.substring(couple.getStartIndex(), couple.getEndIndex() + 1);
                 highlightedLine.append("\u001B[31m"); // ANSI escape code for red text
-                highlightedLine.append(matchedText);
+                highlightedLine.append(line, matches.start(i), matches.end(i) + 1);
                 highlightedLine.append("\u001B[0m"); // Reset color
 
-                currentIndex = couple.getEndIndex() + 1;
+                currentIndex = matches.end(i) + 1;
             }
             // Append any remaining text after the last match
             if (currentIndex < line.length()) {
-                highlightedLine.append(line.substring(currentIndex));
+                highlightedLine.append(line, currentIndex, line.length());
             }
 
             // Print the line with highlighted matches
-            System.out.println(highlightedLine.toString());
+            out.println(highlightedLine);
         }
     }
 
     public static void main(String[] args) throws Exception {
 
-        String regEx, filename;
-        File file;
-        boolean print = true;
+        Options options;
+        try {
+            options = Options.parse(args);
+        } catch (IllegalArgumentException e) {
+            // as an invalid pattern, a bad invocation is an error and not a search without match
+            System.err.println(e.getMessage());
+            System.exit(2);
+            return;
+        }
 
-        if (args.length < 2) {
-            System.out.println("To use : \"<RegEx>\" <filename>");
+        if (options.serverSocket != null) {
+            new EgrepServer(Paths.get(options.serverSocket)).serve();
+            return;
+        }
+        if (options.connectSocket != null) {
+            // the server runs the search, its output is copied here and its exit status is ours
+            int status;
+            try {
+                boolean color = options.color != null ? options.color : LineWriter.isTerminal();
+                status = EgrepServer.request(Paths.get(options.connectSocket), args, color, System.out, System.err);
+            } catch (IOException e) {
+                System.err.println("egrep: no server on " + options.connectSocket + ": " + e.getMessage());
+                status = 2;
+            }
+            if (status != 0) System.exit(status);
             return;
         }
 
-        if (args[1].length() < 2) {
-            System.out.println("To use : \"<RegEx>\" <filename>");
+        Charset charset = Charset.defaultCharset();
+        boolean color = options.color != null ? options.color : LineWriter.isTerminal();
+        // -q prints nothing at all
+        LineWriter out = options.mode == Options.QUIET ? LineWriter.discard(charset) : LineWriter.stdout(charset, color);
+        List<String> patterns = readPatterns(options, null, out);
+        if (patterns == null) {
+            out.flush();
             return;
         }
 
-        if (args.length == 3) {
-            if (args[2].equals("--no-print")) print = false;
+        long startTime = System.currentTimeMillis();
+
+        DFACache cache = options.cacheDirectory == null ? null : new DFACache(Paths.get(options.cacheDirectory), DFACache.DEFAULT_MAX_BYTES);
+        Matcher matcher;
+        try {
+            matcher = compile(patterns, options.lazy, options.nfa, options.glushkov, options.bitParallel, options.errors, cache, System.err);
+        } catch (IllegalArgumentException e) {
+            // as grep, an invalid pattern is an error, not a search without match
+            out.flush();
+            System.err.println("egrep: " + e.getMessage());
+            System.exit(2);
+            return;
         }
 
-        regEx = args[0];
-        filename = args[1];
-        System.out.println("RegEx : \"" + regEx + "\"");
-        System.out.println("filename : " + filename);
+        long matched = 0;
+        try {
+            matched = scan(options, matcher, null, out, System.err);
+        } catch (IOException e) {
+            // a file that can't be read, or a line too long for the memory
+            out.flush();
+            System.err.println("egrep: " + e.getMessage());
+            System.exit(2);
+        }
+        out.flush();
+//
+        long searchEndTime = System.currentTimeMillis();
 
-        file = new File(filename);
+//        System.out.println("Time total: " + (searchEndTime - startTime) + "ms");
 
-        if (regEx.length() < 1) {
-            System.out.println(">> ERROR: empty regEx.");
-            return;
+        // as grep, the exit status is 1 when no line matched
+        if (matched == 0) System.exit(1);
+    }
+
+    // the patterns of the options, printed before the searched paths; null when there is nothing to search
+    // relative paths are resolved against directory, the current directory when null
+    static List<String> readPatterns(Options options, File directory, LineWriter out) throws IOException {
+        List<String> patterns;
+        if (options.patternFile != null) {
+            patterns = readPatterns(resolve(directory, options.patternFile).getPath());
+            out.println("patterns : " + options.patternFile + " (" + patterns.size() + ")");
+        } else {
+            patterns = List.of(options.regEx);
+            out.println("RegEx : \"" + options.regEx + "\"");
         }
+        out.println("filename : " + String.join(", ", options.paths));
 
-        long startTime = System.currentTimeMillis();
+        if (patterns.isEmpty() || patterns.get(0).length() < 1) {
+            out.println(">> ERROR: empty regEx.");
+            return null;
+        }
+        return patterns;
+    }
 
-        boolean simpleConcat = isSimpleConcatenation(regEx);
+    // search the paths of the options, relative paths are resolved against directory
+    // and the lines are printed to out, the files that can't be searched to err; the number of matching lines
+    static long scan(Options options, Matcher matcher, File directory, LineWriter out, PrintStream err) throws IOException {
+        if (options.readsStdin()) {
+            // read as it comes, in a buffer of fixed size, and inflated when compressed
+            String prefix = Boolean.TRUE.equals(options.withFilename) ? "(standard input):" : "";
+            FileScanner lines = new FileScanner(matcher, options.printsLines(), out, prefix, options.stopAfter());
+            new StreamScanner(lines, out).scan(CompressedInput.open(System.in));
+            printSummary(options, "(standard input)", prefix, lines.getCount(), out);
+            return lines.getCount();
+        }
 
-        if (simpleConcat) {
-            KMP kmp = new KMP(regEx);
-            try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    List<Pair> matches = kmp.search(line);
-                    if (print) printResult(matches, line);
-                }
-            } catch (IOException e) {
-                e.printStackTrace();
+        File file = new File(options.paths.get(0));
+        File resolved = resolve(directory, file.getPath());
+        boolean singleFile = options.paths.size() == 1 && !resolved.isDirectory();
+
+        if (singleFile) {
+            // the file is mapped in memory and searched as bytes
+            boolean withFilename = Boolean.TRUE.equals(options.withFilename);
+            String prefix = withFilename ? file.getPath() + ":" : "";
+            // the chunks can't tell when the matching lines before them are enough
+            if (options.threads > 1 && !withFilename && options.stopAfter() == Long.MAX_VALUE && !options.follow
+                    && !CompressedInput.isCompressed(resolved)) {
+                long count = new ParallelScanner(matcher, options.printsLines(), options.threads, out).scan(resolved);
+                printSummary(options, file.getPath(), prefix, count, out);
+                return count;
             }
+
+            FileScanner lines = new FileScanner(matcher, options.printsLines(), out, prefix, options.stopAfter());
+            if (options.follow) follow(lines, resolved, out);
+            else lines.scan(resolved);
+            printSummary(options, file.getPath(), prefix, lines.getCount(), out);
+            return lines.getCount();
         } else {
-            long startTree = System.currentTimeMillis();
-            SyntaxTreeNode root = SyntaxTreeBuilder.buildSyntaxTree(regEx);
-//            System.out.println("Time tree: " + (System.currentTimeMillis() - startTree) + "ms");
-            long startNFA = System.currentTimeMillis();
-            NFA nfa = NFABuilder.syntaxTreeToNFA(root);
-//            System.out.println("Time NFA: " + (System.currentTimeMillis() - startNFA) + "ms");
-//            System.out.println(NFABuilder.generateDOT(nfa));
-            long startDFA = System.currentTimeMillis();
-            DFA dfa = DFABuilder.NFAToDFA(nfa);
-//            System.out.println("Time DFA: " + (System.currentTimeMillis() - startDFA) + "ms");
-            //System.out.println(DFABuilder.generateDOT(dfa));
-            long startMin = System.currentTimeMillis();
-            DFA minDfa = DFABuilder.minimizeDFA(dfa);
-//            System.out.println("Time min: " + (System.currentTimeMillis() - startMin) + "ms");
-//            System.out.println(DFABuilder.generateDOT(minDfa));
-
-            try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    List<Pair> matches = search(minDfa, line);
-                    if (print) printResult(matches, line);
-                }
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+            int workers = options.threads > 0 ? options.threads : Runtime.getRuntime().availableProcessors();
+            boolean withFilename = options.withFilename == null || options.withFilename;
+            return new MultiFileScanner(matcher, options, withFilename, workers, directory, out, err).scan(options.paths);
         }
-//
-        long searchEndTime = System.currentTimeMillis();
+    }
 
-//        System.out.println("Time total: " + (searchEndTime - startTime) + "ms");
+    // in the modes without lines, what is printed once a file is searched
+    static void printSummary(Options options, String path, String prefix, long count, LineWriter out) {
+        if (options.mode == Options.COUNT) out.println(prefix + count);
+        else if (options.mode == Options.FILES_WITH_MATCHES && count > 0) out.println(path);
+        else if (options.mode == Options.FILES_WITHOUT_MATCH && count == 0) out.println(path);
+    }
+
+    private static void follow(FileScanner lines, File file, LineWriter out) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            new StreamScanner(lines, out).follow(channel);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
 
+    static File resolve(File directory, String path) {
+        File file = new File(path);
+        return directory == null || file.isAbsolute() ? file : new File(directory, path);
     }
-}
\ No newline at end of file
+}
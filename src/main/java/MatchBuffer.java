@@ -0,0 +1,34 @@
+import java.util.Arrays;
+
+// Matches of a line in two int arrays, cleared and reused from line to line.
+public class MatchBuffer implements MatchConsumer {
+    private int[] starts = new int[16];
+    private int[] ends = new int[16];
+    private int size;
+
+    @Override
+    public void match(int start, int end) {
+        if (size == starts.length) {
+            starts = Arrays.copyOf(starts, size * 2);
+            ends = Arrays.copyOf(ends, size * 2);
+        }
+        starts[size] = start;
+        ends[size++] = end;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int start(int index) {
+        return starts[index];
+    }
+
+    public int end(int index) {
+        return ends[index];
+    }
+}
@@ -0,0 +1,5 @@
+// Receives the matches of a line one by one, as [start, end] indexes, so that no object is made per match.
+@FunctionalInterface
+public interface MatchConsumer {
+    void match(int start, int end);
+}
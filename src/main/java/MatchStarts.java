@@ -0,0 +1,33 @@
+import java.util.Arrays;
+
+// The chars of a line where a match starts, a bit for each one: marked while a reversed automaton reads the line
+// from its end, then walked from left to right to run the automaton of the patterns from each start.
+// The bits are kept from one line to the next, a MatchStarts must not be shared between threads.
+public class MatchStarts {
+    private long[] bits = new long[16];
+    private int length;
+
+    // no start yet in a line of length chars
+    public void clear(int length) {
+        int words = (length + 63) >>> 6;
+        if (bits.length < words) bits = new long[Math.max(words, bits.length * 2)];
+        Arrays.fill(bits, 0, words, 0);
+        this.length = length;
+    }
+
+    public void set(int index) {
+        bits[index >>> 6] |= 1L << index;
+    }
+
+    // first start at from or after, -1 when there is none
+    public int next(int from) {
+        if (from >= length) return -1;
+        int word = from >>> 6;
+        long set = bits[word] & (-1L << from);
+        while (set == 0) {
+            if (++word == (length + 63) >>> 6) return -1;
+            set = bits[word];
+        }
+        return (word << 6) + Long.numberOfTrailingZeros(set);
+    }
+}
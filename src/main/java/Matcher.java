@@ -0,0 +1,37 @@
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+public interface Matcher {
+
+    // all the matches of the line, as [start, end] indexes given to consumer in order
+    void search(String line, MatchConsumer consumer);
+
+    // all the matches of the line in a list, a Pair for each one
+    default List<Pair> search(String line) {
+        List<Pair> matches = new ArrayList<>();
+        search(line, (start, end) -> matches.add(new Pair(start, end)));
+        return matches;
+    }
+
+    // whether the line has a match, without collecting them
+    default boolean matches(String line) {
+        MatchBuffer matches = new MatchBuffer();
+        search(line, matches);
+        return matches.size() > 0;
+    }
+
+    // a matcher for another thread, matchers without mutable state can share themselves
+    default Matcher forThread() {
+        return this;
+    }
+
+    // whether find can run directly over the UTF-8 bytes of the text
+    default boolean searchesBytes() {
+        return false;
+    }
+
+    // index of the last byte of the first match in text[from, to), -1 if there is none
+    // '\n' and '\r' end a line, a match never spans them; only called when searchesBytes is true
+    int find(ByteBuffer text, int from, int to);
+}
@@ -0,0 +1,174 @@
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+
+// Search of many files and directories through a bounded pipeline:
+// a walker thread lists the files, workers search them, and the calling thread writes the output of each file
+// in the order the walker found them. The matcher is compiled once, each worker searches its files with its own.
+// The file being printed writes straight to the output, the files searched ahead hold at most MAX_HELD bytes each.
+public class MultiFileScanner {
+    static final int MAX_HELD = 1 << 20;
+    // marks the end of the walk in the output queue
+    private static final FileOutput END = new FileOutput(null);
+
+    private final Matcher matcher;
+    // what is printed, and how far the files and the directories are searched
+    private final Options options;
+    private final boolean withFilename;
+    private final int workers;
+    // relative paths are resolved against it, the current directory when null
+    private final File directory;
+    private final LineWriter out;
+    // the directories and the files that can't be searched
+    private final PrintStream err;
+    // a LazyDFA keeps its cache from one file to the next
+    private final ThreadLocal<Matcher> workerMatcher;
+
+    private final LongAdder matched = new LongAdder();
+
+    public MultiFileScanner(Matcher matcher, Options options, boolean withFilename, int workers,
+                            File directory, LineWriter out, PrintStream err) {
+        this.matcher = matcher;
+        this.options = options;
+        this.withFilename = withFilename;
+        this.workers = workers;
+        this.directory = directory;
+        this.out = out;
+        this.err = err;
+        this.workerMatcher = ThreadLocal.withInitial(matcher::forThread);
+    }
+
+    // the number of matching lines
+    public long scan(List<String> paths) throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        // bounds the files searched ahead of the writer
+        BlockingQueue<FileOutput> output = new ArrayBlockingQueue<>(workers * 4);
+
+        Thread walker = new Thread(() -> {
+            try {
+                for (String path : paths) walk(new File(path), pool, output);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                try {
+                    output.put(END);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, "egrep-walker");
+        walker.start();
+
+        try {
+            FileOutput result;
+            while ((result = output.take()) != END) {
+                result.print();
+                // a single matching line answers -q, the files left don't need to be searched
+                if (options.mode == Options.QUIET && matched.sum() > 0) break;
+            }
+            out.flush();
+            return matched.sum();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        } finally {
+            walker.interrupt();
+            pool.shutdownNow();
+        }
+    }
+
+    // file is the path as given, printed before the lines
+    private void walk(File file, ExecutorService pool, BlockingQueue<FileOutput> output) throws InterruptedException {
+        File resolved = Main.resolve(directory, file.getPath());
+        if (resolved.isDirectory()) {
+            if (!options.recursive) {
+                err.println("egrep: " + file.getPath() + ": Is a directory");
+                return;
+            }
+            String[] children = resolved.list();
+            if (children == null) return;
+            Arrays.sort(children);
+            for (String child : children) {
+                // as grep -r, the links to directories met on the way are not followed, a loop would never end
+                File childFile = new File(resolved, child);
+                if (Files.isSymbolicLink(childFile.toPath()) && childFile.isDirectory()) continue;
+                walk(new File(file, child), pool, output);
+            }
+        } else {
+            FileOutput fileOutput = new FileOutput(out);
+            fileOutput.search = CompletableFuture.runAsync(() -> scanFile(file, fileOutput), pool);
+            output.put(fileOutput);
+        }
+    }
+
+    private void scanFile(File file, OutputStream output) {
+        LineWriter lines = out.inMemory(output);
+        String prefix = withFilename ? file.getPath() + ":" : "";
+        FileScanner scanner = new FileScanner(workerMatcher.get(), options.printsLines(), lines, prefix, options.stopAfter());
+        try {
+            scanner.scan(Main.resolve(directory, file.getPath()));
+            Main.printSummary(options, file.getPath(), prefix, scanner.getCount(), lines);
+        } catch (IOException e) {
+            err.println("egrep: " + file.getPath() + ": " + e.getMessage());
+        }
+        matched.add(scanner.getCount());
+        lines.flush();
+    }
+
+    // The output of a file: held in memory while the files before it are printed, its search waits once it holds
+    // MAX_HELD bytes. When the writer reaches it, what is held is printed and the rest goes straight to out,
+    // which the writer doesn't touch until the search is over.
+    private static class FileOutput extends OutputStream {
+        private final LineWriter out;
+        private ByteArrayOutputStream held = new ByteArrayOutputStream();
+        private Future<?> search;
+
+        FileOutput(LineWriter out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public synchronized void write(byte[] bytes, int offset, int length) throws IOException {
+            try {
+                while (held != null && held.size() >= MAX_HELD) wait();
+            } catch (InterruptedException e) {
+                // the writer stopped, after the first matching line for -q or on an error
+                throw new InterruptedIOException();
+            }
+            if (held != null) held.write(bytes, offset, length);
+            else out.write(ByteBuffer.wrap(bytes), offset, offset + length);
+        }
+
+        // from the writer, once the files before are printed; returns when the file is searched
+        void print() throws InterruptedException, ExecutionException {
+            synchronized (this) {
+                out.write(held.toByteArray());
+                held = null;
+                notifyAll();
+            }
+            search.get();
+        }
+    }
+}
@@ -1,24 +1,55 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 //TODO add processing of +
+// The counters live in a builder made for each call, so that patterns can be compiled concurrently.
 public class NFABuilder {
-    private static int stateIdCounter = 0;
+    private int stateIdCounter = 0;
+
+    // instructions of the program being emitted
+    private int[] op = new int[16];
+    private int[] arg = new int[16];
+    private int[] arg2 = new int[16];
+    private int size = 0;
+    private CharClasses classes;
+
+    private NFABuilder() {
+    }
 
     public static NFA syntaxTreeToNFA(SyntaxTreeNode syntaxTree) {
+        return new NFABuilder().buildNFA(syntaxTree);
+    }
+
+    // from the leaves up, the automatons of the subtrees whose parent isn't reached yet on a stack:
+    // without recursion, the trees may be deep
+    private NFA buildNFA(SyntaxTreeNode syntaxTree) {
 
         if (syntaxTree == null) {
             return null;
         }
 
+        Deque<NFA> automatons = new ArrayDeque<>();
+        for (SyntaxTreeNode node : SyntaxTreeBuilder.postOrder(syntaxTree)) {
+            NFA rightNFA = node.right != null ? automatons.pop() : null;
+            NFA leftNFA = node.left != null ? automatons.pop() : null;
+            automatons.push(buildNFA(node, leftNFA, rightNFA));
+        }
+        return automatons.pop();
+    }
+
+    // the automaton of a node from those of its operands
+    private NFA buildNFA(SyntaxTreeNode syntaxTree, NFA leftNFA, NFA rightNFA) {
+
         NFA automaton = new NFA();
 
         // handle concatenation
         if (syntaxTree.operation == SyntaxTreeBuilder.CONCAT) {
 
-            // build left and right automatons
-            NFA leftNFA = syntaxTreeToNFA(syntaxTree.left);
-            NFA rightNFA = syntaxTreeToNFA(syntaxTree.right);
             // connect leftNFA's end state to rightNFA's start state with ε-transition
             NFAState startState = leftNFA.getStartState();
             leftNFA.getAcceptState().addTransition(NFA.EPSILON, rightNFA.getStartState());
@@ -31,10 +62,6 @@ public class NFABuilder {
             NFAState startState = new NFAState(stateIdCounter++, true, false);
             NFAState endState = new NFAState(stateIdCounter++, false, true);
 
-            // create sub-automatons for each option
-            NFA leftNFA = syntaxTreeToNFA(syntaxTree.left);
-            NFA rightNFA = syntaxTreeToNFA(syntaxTree.right);
-
             // connect startState to leftNFA and rightNFA with ε-transitions
             startState.addTransition(NFA.EPSILON, leftNFA.getStartState());
             startState.addTransition(NFA.EPSILON, rightNFA.getStartState());
@@ -51,8 +78,8 @@ public class NFABuilder {
             NFAState startState = new NFAState(stateIdCounter++, true, false);
             NFAState endState = new NFAState(stateIdCounter++, false, true);
 
-            // create sub-automaton
-            NFA subNFA = syntaxTreeToNFA(syntaxTree.left);
+            // the automaton of the body
+            NFA subNFA = leftNFA;
             // connect startState to subNFA with ε-transitions
             startState.addTransition(NFA.EPSILON, subNFA.getStartState());
             startState.addTransition(NFA.EPSILON, endState);
@@ -78,6 +105,191 @@ public class NFABuilder {
         return automaton;
     }
 
+    // Thompson's construction emitted as a flat program instead of a graph of states
+    public static NFAProgram syntaxTreeToProgram(SyntaxTreeNode syntaxTree) {
+        NFABuilder builder = new NFABuilder();
+        Set<Integer> alphabet = new HashSet<>();
+        collectSymbols(syntaxTree, alphabet);
+        builder.classes = new CharClasses(alphabet);
+        builder.emit(syntaxTree);
+        builder.emit(NFAProgram.MATCH, 0, 0);
+        int size = builder.size;
+        return new NFAProgram(Arrays.copyOf(builder.op, size), Arrays.copyOf(builder.arg, size),
+                Arrays.copyOf(builder.arg2, size), builder.classes);
+    }
+
+    // Glushkov's position automaton, without ε-transition: a state for each char or dot of the tree, the position,
+    // reached by reading it, and the start state 0. From the bottom of the tree up, each node gets whether it
+    // matches the empty word, its first positions and its last positions, from which the followpos of each
+    // position is found: what may be read right after it. The edges of a state go to its followpos.
+    public static IndexedNFA syntaxTreeToPositions(SyntaxTreeNode syntaxTree) {
+
+        List<SyntaxTreeNode> postOrder = SyntaxTreeBuilder.postOrder(syntaxTree);
+
+        int positionCount = 1;
+        Set<Integer> alphabet = new HashSet<>();
+        for (SyntaxTreeNode node : postOrder) {
+            if (node.left == null && node.right == null) {
+                alphabet.add(node.operation);
+                positionCount++;
+            }
+        }
+        CharClasses classes = new CharClasses(alphabet);
+
+        // the followpos of a position are unions of first positions, gathered before being merged
+        int[] positionClass = new int[positionCount];
+        List<List<int[]>> follows = new ArrayList<>(positionCount);
+        for (int position = 0; position < positionCount; position++) follows.add(new ArrayList<>());
+
+        // nullable, firstpos and lastpos of the subtrees whose parent isn't reached yet, as a stack;
+        // the positions of a left subtree come before those of the right one, their union is a concatenation
+        boolean[] nullable = new boolean[postOrder.size()];
+        int[][] first = new int[postOrder.size()][];
+        int[][] last = new int[postOrder.size()][];
+        int top = 0;
+        int position = 1;
+        for (SyntaxTreeNode node : postOrder) {
+            if (node.operation == SyntaxTreeBuilder.CONCAT) {
+                // the right operand may be read after any of the last positions of the left one
+                int left = top - 2;
+                int right = top - 1;
+                for (int p : last[left]) follows.get(p).add(first[right]);
+                if (nullable[left]) first[left] = concat(first[left], first[right]);
+                last[left] = nullable[right] ? concat(last[left], last[right]) : last[right];
+                nullable[left] = nullable[left] && nullable[right];
+                top--;
+            } else if (node.operation == SyntaxTreeBuilder.ALTERN) {
+                int left = top - 2;
+                int right = top - 1;
+                first[left] = concat(first[left], first[right]);
+                last[left] = concat(last[left], last[right]);
+                nullable[left] = nullable[left] || nullable[right];
+                top--;
+            } else if (node.operation == SyntaxTreeBuilder.ASTERISK) {
+                // the body may be read again after any of its last positions
+                int body = top - 1;
+                for (int p : last[body]) follows.get(p).add(first[body]);
+                nullable[body] = true;
+            } else {
+                positionClass[position] = node.operation == SyntaxTreeBuilder.DOT ? IndexedNFA.ANY_CLASS : classes.classOf(node.operation);
+                nullable[top] = false;
+                first[top] = new int[]{position};
+                last[top] = new int[]{position};
+                top++;
+                position++;
+            }
+        }
+
+        // the start state goes to the first positions of the tree, a position accepts when it is a last one
+        boolean[] accepting = new boolean[positionCount];
+        accepting[0] = nullable[0];
+        for (int p : last[0]) accepting[p] = true;
+        follows.get(0).add(first[0]);
+
+        // merge the followpos of each position, an edge to each position once, labelled with the class of its char
+        int[] edgeStart = new int[positionCount + 1];
+        int[] edgeTarget = new int[positionCount];
+        int[] seen = new int[positionCount];
+        int edges = 0;
+        for (int from = 0; from < positionCount; from++) {
+            edgeStart[from] = edges;
+            for (int[] targets : follows.get(from)) {
+                for (int target : targets) {
+                    if (seen[target] == from + 1) continue;
+                    seen[target] = from + 1;
+                    if (edges == edgeTarget.length) edgeTarget = Arrays.copyOf(edgeTarget, edges * 2);
+                    edgeTarget[edges++] = target;
+                }
+            }
+        }
+        edgeStart[positionCount] = edges;
+        edgeTarget = Arrays.copyOf(edgeTarget, edges);
+        int[] edgeClass = new int[edges];
+        for (int edge = 0; edge < edges; edge++) edgeClass[edge] = positionClass[edgeTarget[edge]];
+
+        return new IndexedNFA(classes, edgeStart, edgeClass, edgeTarget, accepting);
+    }
+
+    private static int[] concat(int[] first, int[] second) {
+        int[] result = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, result, first.length, second.length);
+        return result;
+    }
+
+    private static void collectSymbols(SyntaxTreeNode syntaxTree, Set<Integer> alphabet) {
+        for (SyntaxTreeNode node : SyntaxTreeBuilder.postOrder(syntaxTree))
+            if (node.left == null && node.right == null) alphabet.add(node.operation);
+    }
+
+    // a node being emitted: the instructions of its operands come between its own, stage counts the operands done
+    private static class Frame {
+        final SyntaxTreeNode node;
+        int stage;
+        int split;
+        int jump;
+
+        Frame(SyntaxTreeNode node) {
+            this.node = node;
+        }
+    }
+
+    // in the order of the recursive walk of the tree, with a stack of frames: the trees may be deep
+    private void emit(SyntaxTreeNode syntaxTree) {
+        Deque<Frame> frames = new ArrayDeque<>();
+        frames.push(new Frame(syntaxTree));
+        while (!frames.isEmpty()) {
+            Frame frame = frames.peek();
+            SyntaxTreeNode node = frame.node;
+            int stage = frame.stage++;
+            if (node.operation == SyntaxTreeBuilder.CONCAT) {
+                if (stage == 0) frames.push(new Frame(node.left));
+                else if (stage == 1) frames.push(new Frame(node.right));
+                else frames.pop();
+            } else if (node.operation == SyntaxTreeBuilder.ALTERN) {
+                // split to both options, the first one jumps over the second
+                if (stage == 0) {
+                    frame.split = emit(NFAProgram.SPLIT, 0, 0);
+                    arg[frame.split] = size;
+                    frames.push(new Frame(node.left));
+                } else if (stage == 1) {
+                    frame.jump = emit(NFAProgram.JMP, 0, 0);
+                    arg2[frame.split] = size;
+                    frames.push(new Frame(node.right));
+                } else {
+                    arg[frame.jump] = size;
+                    frames.pop();
+                }
+            } else if (node.operation == SyntaxTreeBuilder.ASTERISK) {
+                // split to the body or past it, the body jumps back to the split
+                if (stage == 0) {
+                    frame.split = emit(NFAProgram.SPLIT, 0, 0);
+                    arg[frame.split] = size;
+                    frames.push(new Frame(node.left));
+                } else {
+                    emit(NFAProgram.JMP, frame.split, 0);
+                    arg2[frame.split] = size;
+                    frames.pop();
+                }
+            } else {
+                if (node.operation == SyntaxTreeBuilder.DOT) emit(NFAProgram.ANY, 0, 0);
+                else emit(NFAProgram.CHAR, classes.classOf(node.operation), 0);
+                frames.pop();
+            }
+        }
+    }
+
+    private int emit(int opcode, int first, int second) {
+        if (size == op.length) {
+            op = Arrays.copyOf(op, size * 2);
+            arg = Arrays.copyOf(arg, size * 2);
+            arg2 = Arrays.copyOf(arg2, size * 2);
+        }
+        op[size] = opcode;
+        arg[size] = first;
+        arg2[size] = second;
+        return size++;
+    }
+
     // Method to visualize NFA in language DOT https://graphs.grevian.org/graph
     public static String generateDOT(NFA nfa) {
         StringBuilder dot = new StringBuilder();
@@ -0,0 +1,59 @@
+// Thompson NFA as a flat array of instructions, the state of a thread is just an index in the arrays.
+// CHAR consumes a char of class arg, ANY consumes any char, SPLIT goes on at arg and arg2,
+// JMP goes on at arg, MATCH accepts.
+public class NFAProgram {
+    static final int CHAR = 0;
+    static final int ANY = 1;
+    static final int SPLIT = 2;
+    static final int JMP = 3;
+    static final int MATCH = 4;
+
+    private final int[] op;
+    private final int[] arg;
+    private final int[] arg2;
+    private final CharClasses classes;
+
+    public NFAProgram(int[] op, int[] arg, int[] arg2, CharClasses classes) {
+        this.op = op;
+        this.arg = arg;
+        this.arg2 = arg2;
+        this.classes = classes;
+    }
+
+    public int size() {
+        return op.length;
+    }
+
+    public int[] getOp() {
+        return op;
+    }
+
+    public int[] getArg() {
+        return arg;
+    }
+
+    public int[] getArg2() {
+        return arg2;
+    }
+
+    public CharClasses getClasses() {
+        return classes;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder program = new StringBuilder();
+        for (int pc = 0; pc < op.length; pc++) {
+            program.append(pc).append(": ");
+            switch (op[pc]) {
+                case CHAR -> program.append("char ").append(SyntaxTreeBuilder.rootToString(classes.getRepresentative(arg[pc])));
+                case ANY -> program.append("any");
+                case SPLIT -> program.append("split ").append(arg[pc]).append(", ").append(arg2[pc]);
+                case JMP -> program.append("jmp ").append(arg[pc]);
+                default -> program.append("match");
+            }
+            program.append('\n');
+        }
+        return program.toString();
+    }
+}
@@ -1,3 +1,4 @@
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
@@ -33,7 +34,7 @@ public class NFAState {
     }
 
     public Set<NFAState> getTransitions(int symbol) {
-        return transitions.getOrDefault(symbol, new HashSet<>());
+        return transitions.getOrDefault(symbol, Collections.emptySet());
     }
 
     public Map<Integer, Set<NFAState>> getTransitions() {
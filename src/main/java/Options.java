@@ -0,0 +1,145 @@
+import java.util.ArrayList;
+import java.util.List;
+
+// Command line: "<RegEx>" <path>... followed or preceded by options
+public class Options {
+    static final String USAGE = "To use : \"<RegEx>\" [<filename>...|-] [--follow] [-f <patterns file>] [-r] [-H|-h] [--no-print|-c|-l|-L|-q] [-m N] [--threads=N] [--color[=WHEN]]\n"
+            + "         [--lazy|--nfa|--glushkov|--bit-parallel] [--errors=K] [--cache[=DIR]] [--connect[=SOCKET]]\n"
+            + "         --server[=SOCKET]";
+
+    static final String STDIN = "-";
+
+    // what is printed for each file
+    static final int LINES = 0;
+    static final int COUNT = 1;
+    static final int FILES_WITH_MATCHES = 2;
+    static final int FILES_WITHOUT_MATCH = 3;
+    // nothing, the exit status tells whether a line matched
+    static final int QUIET = 4;
+
+    String regEx;
+    // one pattern per line, replaces the RegEx argument
+    String patternFile;
+    List<String> paths = new ArrayList<>();
+    boolean print = true;
+    int mode = LINES;
+    // the search of a file stops after this many matching lines
+    long maxCount = Long.MAX_VALUE;
+    boolean lazy = false;
+    // Pike VM over the NFA, no DFA at all
+    boolean nfa = false;
+    // DFA built from the followpos of the syntax tree, without the ε-transitions of Thompson's NFA
+    boolean glushkov = false;
+    // Shift-And or BNDM over that automaton in a long, for the patterns of less than 64 positions
+    boolean bitParallel = false;
+    // agrep: the matches may have up to this many chars inserted, deleted or substituted
+    int errors = 0;
+    // 0 lets the search choose: a single file is scanned by one thread, many files by one worker per core
+    int threads = 0;
+    // where compiled DFAs are kept between runs, null for no cache
+    String cacheDirectory;
+    // socket a server listens on, or the one of the server running the search; null for neither
+    String serverSocket;
+    String connectSocket;
+    boolean recursive = false;
+    // keep searching the lines appended to the file
+    boolean follow = false;
+    // null lets the search choose: the filename prefixes the lines when there are many files
+    Boolean withFilename = null;
+    // null lets the output choose: the matches are highlighted on a terminal
+    Boolean color = null;
+
+    public static Options parse(String[] args) throws IllegalArgumentException {
+        Options options = new Options();
+
+        List<String> positional = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("--no-print")) options.print = false;
+            else if (arg.equals("--lazy")) options.lazy = true;
+            else if (arg.equals("--nfa")) options.nfa = true;
+            else if (arg.equals("--glushkov")) options.glushkov = true;
+            else if (arg.equals("--bit-parallel")) options.bitParallel = true;
+            else if (arg.startsWith("--errors=")) options.errors = parseInt(arg, "--errors=");
+            else if (arg.startsWith("--threads=")) options.threads = parseInt(arg, "--threads=");
+            else if (arg.equals("--cache")) options.cacheDirectory = DFACache.defaultDirectory().toString();
+            else if (arg.startsWith("--cache=")) options.cacheDirectory = arg.substring("--cache=".length());
+            else if (arg.equals("--server")) options.serverSocket = EgrepServer.defaultSocket().toString();
+            else if (arg.startsWith("--server=")) options.serverSocket = arg.substring("--server=".length());
+            else if (arg.equals("--connect")) options.connectSocket = EgrepServer.defaultSocket().toString();
+            else if (arg.startsWith("--connect=")) options.connectSocket = arg.substring("--connect=".length());
+            else if (arg.equals("-c") || arg.equals("--count")) options.mode = COUNT;
+            else if (arg.equals("-l") || arg.equals("--files-with-matches")) options.mode = FILES_WITH_MATCHES;
+            else if (arg.equals("-L") || arg.equals("--files-without-match")) options.mode = FILES_WITHOUT_MATCH;
+            else if (arg.equals("-q") || arg.equals("--quiet")) options.mode = QUIET;
+            else if (arg.startsWith("--max-count=")) options.maxCount = parseInt(arg, "--max-count=");
+            else if (arg.equals("-m")) {
+                if (++i == args.length) throw new IllegalArgumentException("missing count after -m");
+                options.maxCount = parseInt(args[i], "");
+            } else if (arg.equals("--color") || arg.equals("--colour")) options.color = null;
+            else if (arg.startsWith("--color=")) options.color = parseColor(arg, "--color=");
+            else if (arg.startsWith("--colour=")) options.color = parseColor(arg, "--colour=");
+            else if (arg.equals("--follow")) options.follow = true;
+            else if (arg.equals("-r") || arg.equals("--recursive")) options.recursive = true;
+            else if (arg.equals("-H") || arg.equals("--with-filename")) options.withFilename = true;
+            else if (arg.equals("-h") || arg.equals("--no-filename")) options.withFilename = false;
+            else if (arg.equals("-f")) {
+                if (++i == args.length) throw new IllegalArgumentException("missing patterns file after -f");
+                options.patternFile = args[i];
+            } else if (arg.startsWith("-") && arg.length() > 1 && !positional.isEmpty())
+                throw new IllegalArgumentException("unknown option " + arg);
+            else positional.add(arg);
+        }
+
+        // a server gets its patterns and paths with each request
+        if (options.serverSocket != null) return options;
+
+        // without a patterns file, the first argument is the RegEx
+        if (options.patternFile == null && !positional.isEmpty()) options.regEx = positional.remove(0);
+        options.paths.addAll(positional);
+        // without a path, the standard input
+        if (options.paths.isEmpty()) options.paths.add(STDIN);
+
+        if (options.errors < 0) throw new IllegalArgumentException("invalid number of errors " + options.errors);
+        if (options.threads < 0) throw new IllegalArgumentException("invalid number of threads " + options.threads);
+        if (options.maxCount < 0) throw new IllegalArgumentException("invalid max count " + options.maxCount);
+        if (options.regEx == null && options.patternFile == null)
+            throw new IllegalArgumentException(USAGE);
+        return options;
+    }
+
+    public boolean printsLines() {
+        return print && mode == LINES;
+    }
+
+    // matching lines after which the search of a file is over, one is enough to list the file or to answer -q
+    public long stopAfter() {
+        return mode == LINES || mode == COUNT ? maxCount : 1;
+    }
+
+    public boolean readsStdin() {
+        return paths.size() == 1 && paths.get(0).equals(STDIN);
+    }
+
+    // always, never or auto, null for auto
+    private static Boolean parseColor(String arg, String prefix) {
+        switch (arg.substring(prefix.length())) {
+            case "always":
+                return true;
+            case "never":
+                return false;
+            case "auto":
+                return null;
+            default:
+                throw new IllegalArgumentException("invalid color in " + arg + ", always, never or auto");
+        }
+    }
+
+    private static int parseInt(String arg, String prefix) {
+        try {
+            return Integer.parseInt(arg.substring(prefix.length()));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid number in " + arg);
+        }
+    }
+}
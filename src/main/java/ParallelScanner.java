@@ -0,0 +1,113 @@
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+
+// Search of a single file split in chunks aligned on line ends, the chunks are scanned on a ForkJoinPool.
+// Each chunk writes its lines to its own buffer, buffers are printed in the order of the chunks.
+// Every worker searches its chunks with its own matcher, a LazyDFA keeps its cache from one chunk to the next.
+public class ParallelScanner {
+    static final long MAX_CHUNK_SIZE = 64L << 20;
+    static final long MIN_CHUNK_SIZE = 1L << 20;
+
+    private final Matcher matcher;
+    private final boolean print;
+    private final int threads;
+    private final LineWriter out;
+    private final LongAdder matched = new LongAdder();
+
+    public ParallelScanner(Matcher matcher, boolean print, int threads, LineWriter out) {
+        this.matcher = matcher;
+        this.print = print;
+        this.threads = threads;
+        this.out = out;
+    }
+
+    // the number of matching lines
+    public long scan(File file) throws IOException {
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            List<Long> bounds = splitOnLineEnds(channel);
+            ThreadLocal<Matcher> workerMatcher = ThreadLocal.withInitial(matcher::forThread);
+
+            // keep a few chunks in flight, the output of a chunk waits for the previous ones
+            Deque<Future<byte[]>> pending = new ArrayDeque<>();
+            for (int i = 0; i + 1 < bounds.size(); i++) {
+                long start = bounds.get(i);
+                long end = bounds.get(i + 1);
+                pending.add(pool.submit(() -> scanChunk(workerMatcher.get(), channel, start, end)));
+                if (pending.size() >= threads * 2) out.write(await(pending.poll()));
+            }
+            while (!pending.isEmpty()) out.write(await(pending.poll()));
+            out.flush();
+            return matched.sum();
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private byte[] scanChunk(Matcher matcher, FileChannel channel, long start, long end) throws IOException {
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        LineWriter lines = out.inMemory(output);
+        FileScanner scanner = new FileScanner(matcher, print, lines);
+        scanner.scan(buffer, 0, (int) (end - start));
+        matched.add(scanner.getCount());
+        lines.flush();
+        return output.toByteArray();
+    }
+
+    // chunk bounds, each bound but the last one is just after a line end
+    private List<Long> splitOnLineEnds(FileChannel channel) throws IOException {
+        long size = channel.size();
+        long chunkSize = Math.max(MIN_CHUNK_SIZE, Math.min(MAX_CHUNK_SIZE, size / (threads * 4L)));
+
+        List<Long> bounds = new ArrayList<>();
+        bounds.add(0L);
+        ByteBuffer probe = ByteBuffer.allocate(4096);
+        long bound = chunkSize;
+        while (bound < size) {
+            bound = nextLineStart(channel, bound, probe);
+            if (bound >= size) break;
+            bounds.add(bound);
+            bound += chunkSize;
+        }
+        bounds.add(size);
+        return bounds;
+    }
+
+    private static long nextLineStart(FileChannel channel, long position, ByteBuffer probe) throws IOException {
+        while (true) {
+            probe.clear();
+            int read = channel.read(probe, position);
+            if (read <= 0) return channel.size();
+            for (int i = 0; i < read; i++)
+                if (FileScanner.isLineEnd(probe.get(i))) return position + i + 1;
+            position += read;
+        }
+    }
+
+    private static byte[] await(Future<byte[]> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            throw new IOException(e.getCause());
+        }
+    }
+}
@@ -0,0 +1,191 @@
+import java.nio.ByteBuffer;
+
+// Pike VM: simulation of an NFAProgram without determinization, in O(text length * program size).
+// A thread is a pc, a pc reached twice at the same char is only followed once.
+// The matches are those of DenseDFA: the earliest end of the leftmost start that has a match. As ShiftAnd does,
+// the program of the reversed tree reads the line backwards once and marks where matches start, then the
+// program of the tree goes from each start to its earliest end; the line is read twice, never more.
+// The thread lists are reused between searches, a PikeVM must not be shared between threads.
+public class PikeVM implements Matcher {
+    private final NFAProgram program;
+    private final NFAProgram reverse;
+    private final CharClasses classes;
+
+    private ThreadList current;
+    private ThreadList next;
+    // pcs left to follow while adding a thread
+    private final int[] stack;
+    // where the matches of the line being searched start
+    private final MatchStarts starts = new MatchStarts();
+
+    // reverse is the program of the reversed tree
+    public PikeVM(NFAProgram program, NFAProgram reverse) {
+        this.program = program;
+        this.reverse = reverse;
+        this.classes = program.getClasses();
+        int size = Math.max(program.size(), reverse.size());
+        this.current = new ThreadList(size);
+        this.next = new ThreadList(size);
+        this.stack = new int[size];
+    }
+
+    // every thread gets its own thread lists
+    @Override
+    public Matcher forThread() {
+        return new PikeVM(program, reverse);
+    }
+
+    public NFAProgram getProgram() {
+        return program;
+    }
+
+    // one list of threads, a sparse set over the pcs keeps them unique
+    private static final class ThreadList {
+        final int[] pcs;
+        final int[] sparse;
+        int size;
+        // a thread is on MATCH
+        boolean matched;
+
+        ThreadList(int programSize) {
+            pcs = new int[programSize];
+            sparse = new int[programSize];
+        }
+
+        boolean contains(int pc) {
+            int index = sparse[pc];
+            return index < size && pcs[index] == pc;
+        }
+    }
+
+    // add the thread at pc and the ones it reaches through SPLIT and JMP
+    private void addThread(NFAProgram program, ThreadList list, int pc) {
+        int[] op = program.getOp();
+        int[] arg = program.getArg();
+        int top = 0;
+        stack[top++] = pc;
+        while (top > 0) {
+            int current = stack[--top];
+            if (list.contains(current)) continue;
+            list.sparse[current] = list.size;
+            list.pcs[list.size++] = current;
+            if (op[current] == NFAProgram.SPLIT) {
+                stack[top++] = program.getArg2()[current];
+                stack[top++] = arg[current];
+            } else if (op[current] == NFAProgram.JMP) {
+                stack[top++] = arg[current];
+            } else if (op[current] == NFAProgram.MATCH) {
+                list.matched = true;
+            }
+        }
+    }
+
+    // move the threads over a char of classId; true when one of them reaches MATCH
+    private boolean step(NFAProgram program, int classId) {
+        int[] op = program.getOp();
+        int[] arg = program.getArg();
+        ThreadList from = current;
+        ThreadList to = next;
+        to.size = 0;
+        to.matched = false;
+        for (int i = 0; i < from.size; i++) {
+            int pc = from.pcs[i];
+            if (op[pc] == NFAProgram.ANY || (op[pc] == NFAProgram.CHAR && arg[pc] == classId))
+                addThread(program, to, pc + 1);
+        }
+        current = to;
+        next = from;
+        return to.matched;
+    }
+
+    @Override
+    public void search(String line, MatchConsumer consumer) {
+        int[] classMap = classes.getClassMap();
+        int length = line.length();
+        if (!markStarts(line)) return;
+
+        int matchStartIndex = starts.next(0);
+        while (matchStartIndex >= 0) {
+            // a match starts here, its earliest end comes before the threads die
+            current.size = 0;
+            addThread(program, current, 0);
+            int textIndex = matchStartIndex;
+            boolean matched = step(program, classMap[line.charAt(textIndex)]);
+            while (!matched && current.size > 0 && ++textIndex < length)
+                matched = step(program, classMap[line.charAt(textIndex)]);
+            if (!matched) return;
+            consumer.match(matchStartIndex, textIndex);
+
+            // continue searching for the next match
+            matchStartIndex = starts.next(textIndex + 1);
+        }
+    }
+
+    // the reversed program from the end of the line to its start, a match may end at every char;
+    // false when no match starts anywhere
+    private boolean markStarts(String line) {
+        int[] classMap = reverse.getClasses().getClassMap();
+        int length = line.length();
+        starts.clear(length);
+
+        boolean found = false;
+        current.size = 0;
+        for (int textIndex = length - 1; textIndex >= 0; textIndex--) {
+            addThread(reverse, current, 0);
+            if (step(reverse, classMap[line.charAt(textIndex)])) {
+                starts.set(textIndex);
+                found = true;
+            }
+        }
+        return found;
+    }
+
+
+    // whether a match ends somewhere, a match may start at every char
+    @Override
+    public boolean matches(String line) {
+        int[] classMap = classes.getClassMap();
+        current.size = 0;
+        for (int textIndex = 0; textIndex < line.length(); textIndex++) {
+            addThread(program, current, 0);
+            if (step(program, classMap[line.charAt(textIndex)])) return true;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean searchesBytes() {
+        return classes.isAscii();
+    }
+
+    // the walk of matches over UTF-8 bytes, a lead byte is one char, continuation bytes are skipped,
+    // except the first one of a 4 bytes sequence which stands for the low surrogate of the UTF-16 pair;
+    // the end of the first match
+    @Override
+    public int find(ByteBuffer text, int from, int to) {
+        int[] classMap = classes.getClassMap();
+        int otherClass = classes.getDotClass();
+
+        current.size = 0;
+        for (int textIndex = from; textIndex < to; textIndex++) {
+            int b = text.get(textIndex) & 0xFF;
+            int classId;
+            if (b < 0x80) {
+                if (b == '\n' || b == '\r') {
+                    // end of line, the next one starts from scratch
+                    current.size = 0;
+                    continue;
+                }
+                classId = classMap[b];
+            } else if (b >= 0xC0 || (textIndex > 0 && (text.get(textIndex - 1) & 0xFF) >= 0xF0)) {
+                classId = otherClass;
+            } else {
+                continue;
+            }
+
+            addThread(program, current, 0);
+            if (step(program, classId)) return textIndex;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,70 @@
+import java.nio.ByteBuffer;
+import java.util.List;
+
+// Runs the automaton only on the lines containing a literal factor required by every match,
+// or one of the factors when every match contains one of them, searched by Aho-Corasick.
+public class PrefilteredMatcher implements Matcher {
+
+    // null for many factors
+    private final String factor;
+    private final Matcher literal;
+    private final Matcher matcher;
+
+    public PrefilteredMatcher(String factor, Matcher matcher) {
+        this(factor, Main.literalMatcher(factor), matcher);
+    }
+
+    // ASCII factors only
+    public PrefilteredMatcher(List<String> factors, Matcher matcher) {
+        this(factors.size() == 1 ? factors.get(0) : null,
+                factors.size() == 1 ? Main.literalMatcher(factors.get(0)) : new AhoCorasick(factors), matcher);
+    }
+
+    private PrefilteredMatcher(String factor, Matcher literal, Matcher matcher) {
+        this.factor = factor;
+        this.literal = literal;
+        this.matcher = matcher;
+    }
+
+    @Override
+    public Matcher forThread() {
+        Matcher threadMatcher = matcher.forThread();
+        return threadMatcher == matcher ? this : new PrefilteredMatcher(factor, literal, threadMatcher);
+    }
+
+    @Override
+    public void search(String line, MatchConsumer consumer) {
+        if (containsFactor(line)) matcher.search(line, consumer);
+    }
+
+    @Override
+    public boolean matches(String line) {
+        return containsFactor(line) && matcher.matches(line);
+    }
+
+    private boolean containsFactor(String line) {
+        return factor != null ? line.contains(factor) : literal.matches(line);
+    }
+
+    @Override
+    public boolean searchesBytes() {
+        return literal.searchesBytes() && matcher.searchesBytes();
+    }
+
+    @Override
+    public int find(ByteBuffer text, int from, int to) {
+        int index = from;
+        while (index < to) {
+            int factorEnd = literal.find(text, index, to);
+            if (factorEnd < 0) return -1;
+
+            // run the automaton on the line of the factor only
+            int lineStart = FileScanner.lineStart(text, index, factorEnd);
+            int lineEnd = FileScanner.lineEnd(text, factorEnd, to);
+            int matchEnd = matcher.find(text, lineStart, lineEnd);
+            if (matchEnd >= 0) return matchEnd;
+            index = lineEnd;
+        }
+        return -1;
+    }
+}
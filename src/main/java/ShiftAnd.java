@@ -0,0 +1,102 @@
+import java.nio.ByteBuffer;
+
+// Search of a short pattern with the bit-parallel position automatons of its tree and of its reversed tree,
+// as BidirectionalDFA does with DFAs: the reversed automaton reads the line backwards once and marks where
+// matches start, the automaton of the pattern goes from each start to the earliest end.
+// Compiling is only computing a few tables, a step is a handful of lookups and no branch.
+// The starts of the line are kept between searches, a ShiftAnd must not be shared between threads.
+public class ShiftAnd implements Matcher {
+    private final BitParallelNFA forward;
+    private final BitParallelNFA reverse;
+    // where the matches of the line being searched start
+    private final MatchStarts starts = new MatchStarts();
+
+    public ShiftAnd(BitParallelNFA forward, BitParallelNFA reverse) {
+        this.forward = forward;
+        this.reverse = reverse;
+    }
+
+    // the automatons are shared, every thread gets its own starts
+    @Override
+    public Matcher forThread() {
+        return new ShiftAnd(forward, reverse);
+    }
+
+    @Override
+    public void search(String line, MatchConsumer consumer) {
+        if (!markStarts(line)) return;
+
+        long accept = forward.getAccept();
+        int matchStartIndex = starts.next(0);
+        while (matchStartIndex >= 0) {
+            // a match starts here, the set can't be empty before its earliest end
+            long set = 1;
+            int textIndex = matchStartIndex;
+            while (true) {
+                set = forward.step(set, line.charAt(textIndex));
+                if ((set & accept) != 0) break;
+                textIndex++;
+            }
+            consumer.match(matchStartIndex, textIndex);
+
+            // continue searching for the next match
+            matchStartIndex = starts.next(textIndex + 1);
+        }
+    }
+
+    // the reversed automaton from the end of the line to its start, a match may start at every char;
+    // false when no match starts anywhere
+    private boolean markStarts(String line) {
+        int length = line.length();
+        starts.clear(length);
+
+        long accept = reverse.getAccept();
+        boolean found = false;
+        long set = 0;
+        for (int textIndex = length - 1; textIndex >= 0; textIndex--) {
+            set = reverse.step(set | 1, line.charAt(textIndex));
+            if ((set & accept) != 0) {
+                starts.set(textIndex);
+                found = true;
+            }
+        }
+        return found;
+    }
+
+
+    // whether a match ends somewhere, a match may start at every char
+    @Override
+    public boolean matches(String line) {
+        long accept = forward.getAccept();
+        long set = 0;
+        for (int textIndex = 0; textIndex < line.length(); textIndex++) {
+            set = forward.step(set | 1, line.charAt(textIndex));
+            if ((set & accept) != 0) return true;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean searchesBytes() {
+        return forward.getClasses().isAscii();
+    }
+
+    // the walk of matches over UTF-8 bytes; the end of the first match
+    @Override
+    public int find(ByteBuffer text, int from, int to) {
+        long accept = forward.getAccept();
+        long set = 0;
+        for (int textIndex = from; textIndex < to; textIndex++) {
+            int classId = forward.byteClass(text, textIndex);
+            if (classId == BitParallelNFA.SKIP) continue;
+            if (classId == BitParallelNFA.LINE_END) {
+                // end of line, the next one starts from scratch
+                set = 0;
+                continue;
+            }
+            set = forward.follow(set | 1) & forward.mask(classId);
+            if ((set & accept) != 0) return textIndex;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,76 @@
+import java.util.Arrays;
+
+// Interning of groups of NFA states (sorted int arrays): each distinct group gets the next id.
+// Open addressing on the content of the arrays, no boxing.
+public class StateSetTable {
+    private static final int EMPTY = -1;
+
+    private int[][] sets = new int[16][];
+    private int[] hashes = new int[16];
+    private int size;
+    // slot -> id, EMPTY when the slot is free
+    private int[] slots = new int[32];
+
+    public StateSetTable() {
+        Arrays.fill(slots, EMPTY);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int[] get(int id) {
+        return sets[id];
+    }
+
+    public void clear() {
+        Arrays.fill(sets, 0, size, null);
+        Arrays.fill(slots, EMPTY);
+        size = 0;
+    }
+
+    // id of the group, EMPTY if it was never interned
+    public int indexOf(int[] set) {
+        int hash = Arrays.hashCode(set);
+        int mask = slots.length - 1;
+        for (int slot = mix(hash) & mask; slots[slot] != EMPTY; slot = (slot + 1) & mask) {
+            int id = slots[slot];
+            if (hashes[id] == hash && Arrays.equals(sets[id], set)) return id;
+        }
+        return EMPTY;
+    }
+
+    // id of the group, interned with a new id if needed
+    public int intern(int[] set) {
+        int id = indexOf(set);
+        if (id != EMPTY) return id;
+
+        if (size == sets.length) {
+            sets = Arrays.copyOf(sets, size * 2);
+            hashes = Arrays.copyOf(hashes, size * 2);
+        }
+        id = size++;
+        sets[id] = set;
+        hashes[id] = Arrays.hashCode(set);
+        if (size * 2 > slots.length) rehash(slots.length * 2);
+        else insert(id);
+        return id;
+    }
+
+    private void insert(int id) {
+        int mask = slots.length - 1;
+        int slot = mix(hashes[id]) & mask;
+        while (slots[slot] != EMPTY) slot = (slot + 1) & mask;
+        slots[slot] = id;
+    }
+
+    private void rehash(int capacity) {
+        slots = new int[capacity];
+        Arrays.fill(slots, EMPTY);
+        for (int id = 0; id < size; id++) insert(id);
+    }
+
+    private static int mix(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,124 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+
+// Search of a stream read through a buffer of fixed size: the standard input, a pipe, or a file that keeps growing.
+// Only whole lines are searched, the unfinished last line is moved to the front of the buffer before the next read,
+// so the memory used is the buffer whatever the length of the stream.
+// A line longer than the buffer doubles it, as grep does, so that every line is searched and printed whole, once;
+// the buffer is back to its size as soon as the long line is searched.
+public class StreamScanner {
+    static final int BUFFER_SIZE = 1 << 20;
+    // the largest buffer a long line can get
+    static final int MAX_BUFFER_SIZE = Integer.MAX_VALUE;
+    // how long a followed file is left alone once its end is reached
+    static final long POLL_MILLIS = 200;
+
+    private final FileScanner lines;
+    private final LineWriter out;
+    // the buffer of the given size, and the one in use, larger while a long line is read
+    private final ByteBuffer initial;
+    private ByteBuffer buffer;
+    // end of the bytes already looked for a line end, the ones before are all in the unfinished line
+    private int searched;
+
+    // lines searches and prints the complete lines, and counts them
+    public StreamScanner(FileScanner lines, LineWriter out) {
+        this(lines, out, BUFFER_SIZE);
+    }
+
+    public StreamScanner(FileScanner lines, LineWriter out, int bufferSize) {
+        this.lines = lines;
+        this.out = out;
+        this.initial = ByteBuffer.allocateDirect(bufferSize);
+        this.buffer = initial;
+    }
+
+    public long getCount() {
+        return lines.getCount();
+    }
+
+    // search until the end of the stream, or until enough lines matched
+    public void scan(ReadableByteChannel channel) throws IOException {
+        reset();
+        while (!lines.isDone() && channel.read(buffer) >= 0) scanLines(false);
+        if (!lines.isDone()) scanLines(true);
+    }
+
+    // search a file and the lines appended to it, as tail -f, until the thread is interrupted
+    // or enough lines matched; a file truncated under us is searched again from its start
+    public void follow(FileChannel channel) throws IOException, InterruptedException {
+        reset();
+        while (!lines.isDone()) {
+            if (Thread.currentThread().isInterrupted()) throw new InterruptedException();
+            if (channel.size() < channel.position()) {
+                channel.position(0);
+                reset();
+            }
+            if (channel.read(buffer) > 0) {
+                scanLines(false);
+            } else {
+                // the unfinished last line waits for its line end
+                Thread.sleep(POLL_MILLIS);
+            }
+        }
+    }
+
+    private void reset() {
+        buffer = initial;
+        buffer.clear();
+        searched = 0;
+    }
+
+    // search the complete lines of the buffer and keep the rest for the next read
+    private void scanLines(boolean endOfStream) throws IOException {
+        int limit = buffer.position();
+        int end = endOfStream ? limit : lastLineEnd(limit) + 1;
+        if (end == 0 && limit == buffer.capacity()) {
+            // no line end in a full buffer, the rest of the line is read after it
+            ByteBuffer larger = larger(limit);
+            buffer.flip();
+            larger.put(buffer);
+            buffer = larger;
+            searched = limit;
+            return;
+        }
+
+        if (end > 0) {
+            lines.scan(buffer, 0, end);
+            out.flush();
+        }
+
+        buffer.flip();
+        buffer.position(end);
+        if (buffer != initial && buffer.remaining() < initial.capacity()) {
+            // the long line is searched, the rest goes back to the buffer of the given size
+            initial.clear();
+            initial.put(buffer);
+            buffer = initial;
+        } else {
+            buffer.compact();
+        }
+        searched = buffer.position();
+    }
+
+    // twice the size of the buffer, up to MAX_BUFFER_SIZE; a line that doesn't fit fails the search
+    private static ByteBuffer larger(int size) throws IOException {
+        if (size == MAX_BUFFER_SIZE) throw new IOException("line longer than " + MAX_BUFFER_SIZE + " bytes");
+        int larger = size > MAX_BUFFER_SIZE / 2 ? MAX_BUFFER_SIZE : size * 2;
+        try {
+            return ByteBuffer.allocateDirect(larger);
+        } catch (OutOfMemoryError e) {
+            // the direct memory is bounded by -XX:MaxDirectMemorySize
+            throw new IOException("no memory for a line longer than " + size + " bytes: " + e.getMessage());
+        }
+    }
+
+    // -1 when the bytes read since the last search have no line end
+    private int lastLineEnd(int limit) {
+        for (int i = limit - 1; i >= searched; i--)
+            if (FileScanner.isLineEnd(buffer.get(i))) return i;
+        return -1;
+    }
+}
@@ -1,184 +1,157 @@
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.regex.PatternSyntaxException;
 
 public class SyntaxTreeBuilder {
     static final int CONCAT = 0xC04CA7;
     static final int ASTERISK = 0xE7011E;
     static final int ALTERN = 0xA17E54;
-    static final int PROTECTION = 0xBADDAD;
-    static final int OPENPARENTHESIS = 0x16641664;
-    static final int CLOSEPARENTHESIS = 0x51515151;
     static final int DOT = 0xD07;
+    // on the operator stack only, the position of the parenthesis is kept beside it
+    private static final int GROUP = 0x16641664;
 
     //From RegEx to SyntaxTree
+    // in one pass with a stack of operands and a stack of operators, as the shunting-yard algorithm:
+    // an operator waits on the stack until one of lower or equal priority comes, the star applies right away.
+    // Stars bind tighter than concatenations, concatenations tighter than alternations. The alternatives of a group
+    // wait until it is closed and are joined as a balanced tree: thousands of them give a tree of a few dozen levels.
     public static SyntaxTreeNode buildSyntaxTree(String expression) throws Exception {
         if (expression == null || expression.isEmpty()) {
             return null;
         }
 
-        ArrayList<SyntaxTreeNode> result = new ArrayList<SyntaxTreeNode>();
-        for (int i = 0; i < expression.length(); i++) result.add(new SyntaxTreeNode(charToRoot(expression.charAt(i))));
-
-        return parse(result);
-    }
-
-    private static SyntaxTreeNode parse(ArrayList<SyntaxTreeNode> result) throws Exception {
-
-        while (containParenthesis(result)) result = processParenthesis(result);
-        while (containAsterisk(result)) result = processAsterisk(result);
-        while (containConcat(result)) result = processConcat(result);
-        while (containAltern(result)) result = processAltern(result);
-
-        if (result.size() > 1) throw new Exception();
-
-        return removeProtection(result.get(0));
-    }
-
-    private static ArrayList<SyntaxTreeNode> processParenthesis(ArrayList<SyntaxTreeNode> trees) throws Exception {
-        ArrayList<SyntaxTreeNode> result = new ArrayList<SyntaxTreeNode>();
-        boolean found = false;
-        for (SyntaxTreeNode t : trees) {
-            if (!found && t.operation == CLOSEPARENTHESIS) {
-                boolean done = false;
-                ArrayList<SyntaxTreeNode> content = new ArrayList<SyntaxTreeNode>();
-                while (!done && !result.isEmpty())
-                    if (result.get(result.size() - 1).operation == OPENPARENTHESIS) {
-                        done = true;
-                        result.remove(result.size() - 1);
-                    } else content.add(0, result.remove(result.size() - 1));
-                if (!done) throw new Exception();
-                found = true;
-                SyntaxTreeNode subTree = parse(content);
-                SyntaxTreeNode protection = new SyntaxTreeNode(PROTECTION);
-                protection.left = subTree;
-                result.add(protection);
+        int length = expression.length();
+        SyntaxTreeNode[] operands = new SyntaxTreeNode[length];
+        int operandCount = 0;
+        int[] operators = new int[length];
+        int[] groupPositions = new int[length];
+        int operatorCount = 0;
+        // whether the last thing read ends an operand: a char, a dot, a star or a closing parenthesis
+        boolean afterOperand = false;
+
+        for (int i = 0; i < length; i++) {
+            char c = expression.charAt(i);
+            if (c == '*') {
+                if (!afterOperand) throw syntaxError("nothing to repeat", expression, i);
+                SyntaxTreeNode star = new SyntaxTreeNode(ASTERISK);
+                star.left = operands[operandCount - 1];
+                operands[operandCount - 1] = star;
+            } else if (c == '|') {
+                if (!afterOperand) throw syntaxError("empty alternative", expression, i);
+                while (operatorCount > 0 && operators[operatorCount - 1] == CONCAT)
+                    operandCount = reduce(operands, operandCount, operators[--operatorCount]);
+                operators[operatorCount++] = ALTERN;
+                afterOperand = false;
+            } else if (c == ')') {
+                if (!afterOperand) throw syntaxError("empty group or alternative", expression, i);
+                int reduced = reduceGroup(operands, operandCount, operators, operatorCount);
+                operandCount -= reduced;
+                operatorCount -= reduced;
+                if (operatorCount == 0) throw syntaxError("unmatched closing parenthesis", expression, i);
+                operatorCount--;
             } else {
-                result.add(t);
+                // two operands side by side are concatenated
+                if (afterOperand) {
+                    while (operatorCount > 0 && operators[operatorCount - 1] == CONCAT)
+                        operandCount = reduce(operands, operandCount, operators[--operatorCount]);
+                    operators[operatorCount++] = CONCAT;
+                }
+                if (c == '(') {
+                    groupPositions[operatorCount] = i;
+                    operators[operatorCount++] = GROUP;
+                    afterOperand = false;
+                } else {
+                    operands[operandCount++] = new SyntaxTreeNode(c == '.' ? DOT : (int) c);
+                    afterOperand = true;
+                }
             }
         }
-        if (!found) throw new Exception();
-        return result;
-    }
 
-    private static ArrayList<SyntaxTreeNode> processAltern(ArrayList<SyntaxTreeNode> trees) throws Exception {
-        ArrayList<SyntaxTreeNode> result = new ArrayList<SyntaxTreeNode>();
-        boolean found = false;
-        SyntaxTreeNode gauche = null;
-        boolean done = false;
-        for (SyntaxTreeNode t : trees) {
-            if (!found && t.operation == ALTERN && t.left == null && t.right == null) {
-                if (result.isEmpty()) throw new Exception();
-                found = true;
-                gauche = result.remove(result.size() - 1);
-                continue;
-            }
-            if (found && !done) {
-                if (gauche == null) throw new Exception();
-                done = true;
-                SyntaxTreeNode subTree = new SyntaxTreeNode(ALTERN);
-                subTree.left = gauche;
-                subTree.right = t;
-                result.add(subTree);
-            } else {
-                result.add(t);
-            }
-        }
-        return result;
+        if (!afterOperand) throw syntaxError("missing operand at the end", expression, length - 1);
+        operatorCount -= reduceGroup(operands, operandCount, operators, operatorCount);
+        // only the innermost group left open can be on top
+        if (operatorCount > 0) throw syntaxError("unclosed parenthesis", expression, groupPositions[operatorCount - 1]);
+        return operands[0];
     }
 
-    private static ArrayList<SyntaxTreeNode> processConcat(ArrayList<SyntaxTreeNode> trees) {
-        ArrayList<SyntaxTreeNode> result = new ArrayList<SyntaxTreeNode>();
-        boolean found = false;
-        boolean firstFound = false;
-        for (SyntaxTreeNode t : trees) {
-            if (!found && !firstFound && t.operation != ALTERN) {
-                firstFound = true;
-                result.add(t);
-                continue;
-            }
-            if (!found && firstFound && t.operation == ALTERN) {
-                firstFound = false;
-                result.add(t);
-                continue;
-            }
-            if (!found && firstFound) {
-                found = true;
-                SyntaxTreeNode last = result.remove(result.size() - 1);
-                SyntaxTreeNode subTree = new SyntaxTreeNode(CONCAT);
-                subTree.left = last;
-                subTree.right = t;
-                result.add(subTree);
-            } else {
-                result.add(t);
-            }
+    // the innermost group is closed: the concatenations on top of the stack are reduced, then its alternatives
+    // become one operand; returns the number of operators reduced, which is also the number of operands removed
+    private static int reduceGroup(SyntaxTreeNode[] operands, int operandCount, int[] operators, int operatorCount) {
+        int top = operatorCount;
+        while (top > 0 && operators[top - 1] == CONCAT)
+            operandCount = reduce(operands, operandCount, operators[--top]);
+        int alternatives = 1;
+        while (top > 0 && operators[top - 1] == ALTERN) {
+            top--;
+            alternatives++;
         }
-        return result;
+        int first = operandCount - alternatives;
+        operands[first] = alternation(operands, first, operandCount);
+        return operatorCount - top;
     }
 
-    private static ArrayList<SyntaxTreeNode> processAsterisk(ArrayList<SyntaxTreeNode> trees) throws Exception {
-        ArrayList<SyntaxTreeNode> result = new ArrayList<SyntaxTreeNode>();
-        boolean found = false;
-        for (SyntaxTreeNode t : trees) {
-            if (!found && t.operation == ASTERISK && t.left == null && t.right == null) {
-                if (result.isEmpty()) throw new Exception();
-                found = true;
-                SyntaxTreeNode last = result.remove(result.size() - 1);
-                SyntaxTreeNode subTree = new SyntaxTreeNode(ASTERISK);
-                subTree.left = last;
-                result.add(subTree);
-            } else {
-                result.add(t);
-            }
-        }
-        return result;
+    // the alternation of operands[from, to) as a balanced tree, its depth grows with the log of their number
+    static SyntaxTreeNode alternation(SyntaxTreeNode[] operands, int from, int to) {
+        if (to - from == 1) return operands[from];
+        int middle = (from + to) >>> 1;
+        SyntaxTreeNode altern = new SyntaxTreeNode(ALTERN);
+        altern.left = alternation(operands, from, middle);
+        altern.right = alternation(operands, middle, to);
+        return altern;
     }
 
-    private static boolean containParenthesis(ArrayList<SyntaxTreeNode> trees) {
-        for (SyntaxTreeNode t : trees)
-            if (t.operation == OPENPARENTHESIS || t.operation == CLOSEPARENTHESIS) return true;
-        return false;
+    // the two operands on top of the stack become one, joined by the operator
+    private static int reduce(SyntaxTreeNode[] operands, int operandCount, int operator) {
+        SyntaxTreeNode subTree = new SyntaxTreeNode(operator);
+        subTree.left = operands[operandCount - 2];
+        subTree.right = operands[operandCount - 1];
+        operands[operandCount - 2] = subTree;
+        return operandCount - 1;
     }
 
-    private static boolean containAsterisk(ArrayList<SyntaxTreeNode> trees) {
-        for (SyntaxTreeNode t : trees) if (t.operation == ASTERISK && t.left == null && t.right == null) return true;
-        return false;
+    // the message points at the position in the pattern
+    private static PatternSyntaxException syntaxError(String description, String expression, int position) {
+        return new PatternSyntaxException(description, expression, position);
     }
 
-    private static boolean containConcat(ArrayList<SyntaxTreeNode> trees) {
-        boolean firstFound = false;
-        for (SyntaxTreeNode t : trees) {
-            if (!firstFound && t.operation != ALTERN) {
-                firstFound = true;
-                continue;
-            }
-            if (firstFound) if (t.operation != ALTERN) return true;
-            else firstFound = false;
+    // children before their parent, the leaves from left to right; without recursion, a pattern of thousands
+    // of chars is a chain of thousands of concatenations
+    static List<SyntaxTreeNode> postOrder(SyntaxTreeNode tree) {
+        List<SyntaxTreeNode> postOrder = new ArrayList<>();
+        if (tree == null) return postOrder;
+        Deque<SyntaxTreeNode> stack = new ArrayDeque<>();
+        stack.push(tree);
+        while (!stack.isEmpty()) {
+            SyntaxTreeNode node = stack.pop();
+            postOrder.add(node);
+            if (node.left != null) stack.push(node.left);
+            if (node.right != null) stack.push(node.right);
         }
-        return false;
+        Collections.reverse(postOrder);
+        return postOrder;
     }
 
-    private static boolean containAltern(ArrayList<SyntaxTreeNode> trees) {
-        for (SyntaxTreeNode t : trees) if (t.operation == ALTERN && t.left == null && t.right == null) return true;
-        return false;
-    }
-
-    private static SyntaxTreeNode removeProtection(SyntaxTreeNode tree) throws Exception {
-        if (tree.operation == PROTECTION && tree.right != null) throw new Exception();
-        if (tree.left == null) return tree;
-        if (tree.operation == PROTECTION) return removeProtection(tree.left);
-
-        SyntaxTreeNode subTree = new SyntaxTreeNode(tree.operation);
-        subTree.left = removeProtection(tree.left);
-        if (tree.right != null) subTree.right = removeProtection(tree.right);
-        return subTree;
-    }
-
-    private static int charToRoot(char c) {
-        if (c == '.') return DOT;
-        if (c == '*') return ASTERISK;
-        if (c == '|') return ALTERN;
-        if (c == '(') return OPENPARENTHESIS;
-        if (c == ')') return CLOSEPARENTHESIS;
-        return (int) c;
+    // tree of the mirror language, the words read backwards: the operands of every concatenation are swapped
+    public static SyntaxTreeNode reverse(SyntaxTreeNode tree) {
+        if (tree == null) return null;
+        // the reversed subtrees whose parent isn't reached yet
+        Deque<SyntaxTreeNode> reversed = new ArrayDeque<>();
+        for (SyntaxTreeNode node : postOrder(tree)) {
+            SyntaxTreeNode copy = new SyntaxTreeNode(node.operation);
+            if (node.right != null) {
+                SyntaxTreeNode right = reversed.pop();
+                SyntaxTreeNode left = reversed.pop();
+                copy.left = node.operation == CONCAT ? right : left;
+                copy.right = node.operation == CONCAT ? left : right;
+            } else if (node.left != null) {
+                copy.left = reversed.pop();
+            }
+            reversed.push(copy);
+        }
+        return reversed.pop();
     }
 
     public static void printSyntaxTree(SyntaxTreeNode root) {
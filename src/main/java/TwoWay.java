@@ -0,0 +1,147 @@
+import java.nio.ByteBuffer;
+
+// Crochemore-Perrin Two-Way search of an ASCII literal, for long needles:
+// linear in the worst case with constant extra space, where Horspool can degrade on periodic needles.
+public class TwoWay implements Matcher {
+
+    private final byte[] needle;
+    // a needle with other chars is only searched through literalMatcher, by KMP
+    private final boolean ascii;
+    // critical factorization of the needle: needle[0..ell] | needle[ell+1..]
+    private final int ell;
+    private final int period;
+    // the needle is periodic when its left part repeats at distance period
+    private final boolean periodic;
+
+    public TwoWay(String pattern) {
+        this.needle = new byte[pattern.length()];
+        for (int i = 0; i < needle.length; i++) needle[i] = (byte) pattern.charAt(i);
+        this.ascii = pattern.chars().allMatch(c -> c < 0x80);
+
+        int[] p = new int[1];
+        int[] q = new int[1];
+        int i = maximalSuffix(needle, p, false);
+        int j = maximalSuffix(needle, q, true);
+        ell = Math.max(i, j);
+        int candidate = i > j ? p[0] : q[0];
+
+        periodic = repeats(candidate);
+        // without a small period, any shift past the longest of the two parts is safe
+        period = periodic ? candidate : Math.max(ell + 1, needle.length - ell - 1) + 1;
+    }
+
+    private boolean repeats(int candidate) {
+        if (ell + 1 + candidate > needle.length) return false;
+        for (int k = 0; k <= ell; k++)
+            if (needle[k] != needle[k + candidate]) return false;
+        return true;
+    }
+
+    // start of the maximal suffix of x for the byte order (or the reversed order), its period in p[0]
+    private static int maximalSuffix(byte[] x, int[] p, boolean reversed) {
+        int ms = -1, j = 0, k = 1;
+        p[0] = 1;
+        while (j + k < x.length) {
+            int a = x[j + k] & 0xFF;
+            int b = x[ms + k] & 0xFF;
+            if (reversed ? a > b : a < b) {
+                j += k;
+                k = 1;
+                p[0] = j - ms;
+            } else if (a == b) {
+                if (k != p[0]) {
+                    k++;
+                } else {
+                    j += p[0];
+                    k = 1;
+                }
+            } else {
+                ms = j;
+                j = ms + 1;
+                k = p[0] = 1;
+            }
+        }
+        return ms;
+    }
+
+    @Override
+    public void search(String text, MatchConsumer consumer) {
+        int m = needle.length;
+        int j = indexOf(text, 0);
+        while (j >= 0) {
+            consumer.match(j, j + m - 1);
+            // matches don't overlap, the search starts over after this one
+            j = indexOf(text, j + m);
+        }
+    }
+
+    // the search stops at the first match, nothing is collected
+    @Override
+    public boolean matches(String text) {
+        return indexOf(text, 0) >= 0;
+    }
+
+    // start of the first match at from or after, -1 if there is none
+    private int indexOf(String text, int from) {
+
+        int m = needle.length;
+        int n = text.length();
+
+        int j = from;
+        int memory = -1;
+        while (j <= n - m) {
+            // right part first, from left to right
+            int i = Math.max(ell, memory) + 1;
+            while (i < m && needle[i] == text.charAt(i + j)) i++;
+            if (i < m) {
+                j += i - ell;
+                memory = -1;
+                continue;
+            }
+            // then the left part, from right to left
+            i = ell;
+            while (i > memory && needle[i] == text.charAt(i + j)) i--;
+            if (i <= memory) return j;
+            if (periodic) {
+                j += period;
+                memory = m - period - 1;
+            } else {
+                j += period;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public boolean searchesBytes() {
+        return ascii;
+    }
+
+    @Override
+    public int find(ByteBuffer text, int from, int to) {
+        int m = needle.length;
+
+        int j = from;
+        int memory = -1;
+        while (j <= to - m) {
+            int i = Math.max(ell, memory) + 1;
+            while (i < m && needle[i] == text.get(i + j)) i++;
+            if (i < m) {
+                j += i - ell;
+                memory = -1;
+                continue;
+            }
+            i = ell;
+            while (i > memory && needle[i] == text.get(i + j)) i--;
+            if (i <= memory) return j + m - 1;
+            if (periodic) {
+                j += period;
+                memory = m - period - 1;
+            } else {
+                j += period;
+            }
+        }
+
+        return -1;
+    }
+}